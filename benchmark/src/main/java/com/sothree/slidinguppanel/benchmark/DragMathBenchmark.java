@@ -0,0 +1,86 @@
+package com.sothree.slidinguppanel.benchmark;
+
+import com.sothree.slidinguppanel.DragMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the settle and snap decisions made on every release and settle frame.
+ * Run with the gc profiler to also get bytes allocated per operation, which must stay 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DragMathBenchmark {
+
+    private final GestureInputs mInputs = new GestureInputs();
+    private int mIndex;
+
+    private int next() {
+        return mIndex = (mIndex + 1) & GestureInputs.MASK;
+    }
+
+    @Benchmark
+    public int computeSettleDuration() {
+        final int i = next();
+        return DragMath.computeSettleDuration(0, mInputs.settleDistances[i],
+                0, (int) mInputs.releaseVelocities[i],
+                GestureInputs.MIN_VELOCITY, GestureInputs.MAX_VELOCITY,
+                0, GestureInputs.SLIDE_RANGE, GestureInputs.PARENT_WIDTH);
+    }
+
+    @Benchmark
+    public int computeAxisDuration() {
+        final int i = next();
+        return DragMath.computeAxisDuration(mInputs.settleDistances[i],
+                DragMath.clampMag((int) mInputs.releaseVelocities[i],
+                        GestureInputs.MIN_VELOCITY, GestureInputs.MAX_VELOCITY),
+                GestureInputs.SLIDE_RANGE, GestureInputs.PARENT_WIDTH);
+    }
+
+    @Benchmark
+    public float quinticInterpolation() {
+        return DragMath.quinticInterpolation(mInputs.settleFractions[next()]);
+    }
+
+    @Benchmark
+    public float computeReleaseOffset() {
+        final int i = next();
+        return DragMath.computeReleaseOffset(GestureInputs.SNAP_OFFSETS,
+                mInputs.releaseOffsets[i], mInputs.releaseVelocities[i]);
+    }
+
+    @Benchmark
+    public float computeRangeEndReleaseOffset() {
+        final int i = next();
+        return DragMath.computeRangeEndReleaseOffset(GestureInputs.SNAP_OFFSETS,
+                mInputs.releaseOffsets[i], mInputs.releaseVelocities[i]);
+    }
+
+    @Benchmark
+    public float computeProjectedReleaseOffset() {
+        final int i = next();
+        return DragMath.computeProjectedReleaseOffset(GestureInputs.SNAP_OFFSETS,
+                mInputs.releaseOffsets[i], mInputs.releaseVelocities[i],
+                GestureInputs.DECELERATION, GestureInputs.SLIDE_RANGE);
+    }
+
+    @Benchmark
+    public int findNearestSnapIndex() {
+        return DragMath.findNearestSnapIndex(GestureInputs.SNAP_OFFSETS,
+                mInputs.releaseOffsets[next()]);
+    }
+}
@@ -0,0 +1,111 @@
+package com.sothree.slidinguppanel.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic inputs shaped like the gestures the panel sees on a phone: a 1200px slide
+ * range on a 1080px wide parent at 2.75 density, with a mix of slow releases and flings
+ * and 120 Hz drag samples. The same seed always produces the same inputs, so results
+ * stay comparable between runs.
+ */
+final class GestureInputs {
+
+    /**
+     * Number of precomputed inputs; a power of two so the index can wrap with a mask.
+     */
+    static final int SIZE = 1024;
+    static final int MASK = SIZE - 1;
+
+    static final int SLIDE_RANGE = 1200; // px
+    static final int PARENT_WIDTH = 1080; // px
+    static final int MIN_VELOCITY = 1100; // px per second, 400dp at 2.75 density
+    static final int MAX_VELOCITY = 22000; // px per second, 8000dp at 2.75 density
+    static final float DECELERATION = 11000; // px per second squared, 4000dp at 2.75 density
+
+    /**
+     * Snap offsets of a panel with two anchor points, including both ends of the range.
+     */
+    static final float[] SNAP_OFFSETS = {0f, 0.35f, 0.7f, 1f};
+
+    private static final long SEED = 0x53555054L;
+
+    // Share of releases below the fling threshold
+    private static final float SLOW_RELEASE_RATIO = 0.4f;
+
+    // Median and spread of the fling speed, log-normal
+    private static final float FLING_MEDIAN = 3000; // px per second
+    private static final float FLING_SIGMA = 0.6f;
+
+    // Drag sampling: 120 Hz with up to 1ms of jitter, 60 samples per drag
+    private static final int SAMPLE_INTERVAL = 8; // ms
+    private static final int SAMPLES_PER_DRAG = 60;
+
+    /**
+     * Slide offset at release, in [0, 1].
+     */
+    final float[] releaseOffsets = new float[SIZE];
+
+    /**
+     * Release velocity along the offset axis, in pixels per second.
+     */
+    final float[] releaseVelocities = new float[SIZE];
+
+    /**
+     * Distance from the release position to the chosen snap, in pixels.
+     */
+    final int[] settleDistances = new int[SIZE];
+
+    /**
+     * Elapsed fraction of a settle at each animation frame.
+     */
+    final float[] settleFractions = new float[SIZE];
+
+    /**
+     * Drag samples: time in milliseconds and finger position in pixels.
+     */
+    final long[] sampleTimes = new long[SIZE];
+    final float[] sampleX = new float[SIZE];
+    final float[] sampleY = new float[SIZE];
+
+    GestureInputs() {
+        final Random random = new Random(SEED);
+        for (int i = 0; i < SIZE; i++) {
+            final float offset = random.nextFloat();
+            final float speed = random.nextFloat() < SLOW_RELEASE_RATIO
+                    ? random.nextFloat() * MIN_VELOCITY
+                    : (float) (FLING_MEDIAN * Math.exp(FLING_SIGMA * random.nextGaussian()));
+            final float velocity = random.nextBoolean() ? speed : -speed;
+            releaseOffsets[i] = offset;
+            releaseVelocities[i] = Math.min(Math.max(velocity, -MAX_VELOCITY), MAX_VELOCITY);
+
+            // Distance to the nearest snap in the direction of motion
+            float target = velocity > 0 ? 1f : 0f;
+            for (float snap : SNAP_OFFSETS) {
+                if (velocity > 0 ? snap > offset && snap < target : snap < offset && snap > target) {
+                    target = snap;
+                }
+            }
+            settleDistances[i] = Math.round((target - offset) * SLIDE_RANGE);
+
+            settleFractions[i] = (float) (i % 32) / 31;
+        }
+
+        // Each drag accelerates and then slows down, like a finger pulling the panel
+        long time = 0;
+        float y = 0;
+        for (int i = 0; i < SIZE; i++) {
+            final int step = i % SAMPLES_PER_DRAG;
+            if (step == 0) {
+                // Pointer lifted between drags
+                time += 200;
+                y = 1500 + random.nextFloat() * 300;
+            }
+            time += SAMPLE_INTERVAL + random.nextInt(3) - 1;
+            final float phase = (float) step / SAMPLES_PER_DRAG;
+            y -= 40 * (float) Math.sin(Math.PI * phase) + random.nextFloat() * 2;
+            sampleTimes[i] = time;
+            sampleX[i] = 540 + random.nextFloat() * 4;
+            sampleY[i] = y;
+        }
+    }
+}
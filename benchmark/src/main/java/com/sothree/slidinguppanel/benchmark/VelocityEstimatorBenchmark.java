@@ -0,0 +1,47 @@
+package com.sothree.slidinguppanel.benchmark;
+
+import com.sothree.slidinguppanel.VelocityEstimator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one drag move through the velocity estimator: add the new sample and refit the
+ * velocity, as happens for every ACTION_MOVE when prediction or the estimator is enabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelocityEstimatorBenchmark {
+
+    private final GestureInputs mInputs = new GestureInputs();
+    private final VelocityEstimator mEstimator = new VelocityEstimator();
+    private int mIndex;
+
+    // Keeps sample times increasing when the input wraps around
+    private long mTimeBase;
+
+    @Benchmark
+    public float addSampleAndComputeVelocity() {
+        final int i = mIndex = (mIndex + 1) & GestureInputs.MASK;
+        if (i == 0) {
+            mTimeBase += mInputs.sampleTimes[GestureInputs.MASK];
+        }
+        mEstimator.addSample(mTimeBase + mInputs.sampleTimes[i],
+                mInputs.sampleX[i], mInputs.sampleY[i]);
+        mEstimator.computeCurrentVelocity(1000, GestureInputs.MAX_VELOCITY);
+        return mEstimator.getYVelocity();
+    }
+}
@@ -0,0 +1,101 @@
+package com.sothree.slidinguppanel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plain JVM checks of the closed-form spring in {@link CriticalSpring}.
+ */
+public class CriticalSpringTest {
+
+    private static final float STIFFNESS = 200f;
+    private static final float POSITION_THRESHOLD = 0.5f;
+    private static final float VELOCITY_THRESHOLD = 10f;
+
+    @Test
+    public void startsAtGivenState() {
+        final CriticalSpring spring = new CriticalSpring(STIFFNESS);
+        spring.start(1000, 800, -1500, 200);
+        spring.update(1000);
+        assertEquals(800f, spring.getPosition(), 1e-3f);
+        assertEquals(-1500f, spring.getVelocity(), 1e-2f);
+        assertEquals(200f, spring.getTarget(), 0);
+    }
+
+    @Test
+    public void endsAtTarget() {
+        final CriticalSpring spring = new CriticalSpring(STIFFNESS);
+        spring.start(0, 800, 0, 200);
+        spring.update(CriticalSpring.MAX_SETTLE_TIME);
+        assertEquals(200f, spring.getPosition(), 1e-3f);
+        assertEquals(0f, spring.getVelocity(), 1e-3f);
+        assertTrue(spring.isAtRest(POSITION_THRESHOLD, VELOCITY_THRESHOLD));
+    }
+
+    @Test
+    public void neverOvershootsFromRest() {
+        final CriticalSpring spring = new CriticalSpring(STIFFNESS);
+        spring.start(0, 800, 0, 200);
+        float previous = 800;
+        for (int t = 16; t <= 2000; t += 16) {
+            spring.update(t);
+            assertTrue(spring.getPosition() >= 200f);
+            assertTrue(spring.getPosition() <= previous);
+            previous = spring.getPosition();
+        }
+    }
+
+    @Test
+    public void retargetKeepsPositionAndVelocity() {
+        final CriticalSpring spring = new CriticalSpring(STIFFNESS);
+        spring.start(0, 800, -2000, 200);
+        spring.update(120);
+        final float position = spring.getPosition();
+        final float velocity = spring.getVelocity();
+
+        spring.retarget(120, 500);
+        assertEquals(500f, spring.getTarget(), 0);
+        assertEquals(position, spring.getPosition(), 0);
+        assertEquals(velocity, spring.getVelocity(), 0);
+
+        // Evaluating the new motion at the retarget time gives the same state
+        spring.update(120);
+        assertEquals(position, spring.getPosition(), 1e-3f);
+        assertEquals(velocity, spring.getVelocity(), 1e-2f);
+
+        spring.update(120 + CriticalSpring.MAX_SETTLE_TIME);
+        assertEquals(500f, spring.getPosition(), 1e-3f);
+    }
+
+    @Test
+    public void settleTimeMatchesRestCheck() {
+        final CriticalSpring spring = new CriticalSpring(STIFFNESS);
+        spring.start(0, 800, -1500, 200);
+        final int settleTime = spring.estimateSettleTime(POSITION_THRESHOLD, VELOCITY_THRESHOLD);
+        assertTrue(settleTime > 0 && settleTime < CriticalSpring.MAX_SETTLE_TIME);
+
+        spring.update(settleTime);
+        assertTrue(spring.isAtRest(POSITION_THRESHOLD, VELOCITY_THRESHOLD));
+        spring.update(settleTime - 1);
+        assertFalse(spring.isAtRest(POSITION_THRESHOLD, VELOCITY_THRESHOLD));
+    }
+
+    @Test
+    public void settleTimeIsZeroAtRest() {
+        final CriticalSpring spring = new CriticalSpring(STIFFNESS);
+        spring.start(0, 200, 0, 200);
+        assertEquals(0, spring.estimateSettleTime(POSITION_THRESHOLD, VELOCITY_THRESHOLD));
+    }
+
+    @Test
+    public void settleTimeIsCapped() {
+        // A very soft spring does not come to rest within the cap
+        final CriticalSpring spring = new CriticalSpring(0.01f);
+        spring.start(0, 10000, 0, 0);
+        assertEquals(CriticalSpring.MAX_SETTLE_TIME,
+                spring.estimateSettleTime(POSITION_THRESHOLD, VELOCITY_THRESHOLD));
+    }
+}
@@ -0,0 +1,131 @@
+package com.sothree.slidinguppanel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Plain JVM checks of the snap lookups and release target selection in {@link DragMath}.
+ */
+public class DragMathSnapTest {
+
+    private static final float[] SNAPS = {0f, 0.3f, 0.6f, 1f};
+    private static final float[] NO_ANCHORS = {0f, 1f};
+
+    // 1000 px/s against 2000 px/s^2 travels 250 px, a quarter of the range
+    private static final float DECELERATION = 2000f;
+    private static final int SLIDE_RANGE = 1000;
+
+    @Test
+    public void nearestSnapIndex() {
+        assertEquals(0, DragMath.findNearestSnapIndex(SNAPS, -0.5f));
+        assertEquals(0, DragMath.findNearestSnapIndex(SNAPS, 0f));
+        assertEquals(1, DragMath.findNearestSnapIndex(SNAPS, 0.3f));
+        assertEquals(1, DragMath.findNearestSnapIndex(SNAPS, 0.44f));
+        assertEquals(2, DragMath.findNearestSnapIndex(SNAPS, 0.46f));
+        assertEquals(3, DragMath.findNearestSnapIndex(SNAPS, 1f));
+        assertEquals(3, DragMath.findNearestSnapIndex(SNAPS, 1.5f));
+    }
+
+    @Test
+    public void nextSnapIndexFromExactSnap() {
+        assertEquals(2, DragMath.findNextSnapIndex(SNAPS, 0.3f, 1));
+        assertEquals(0, DragMath.findNextSnapIndex(SNAPS, 0.3f, -1));
+        assertEquals(3, DragMath.findNextSnapIndex(SNAPS, 0.6f, 1));
+        assertEquals(1, DragMath.findNextSnapIndex(SNAPS, 0.6f, -1));
+    }
+
+    @Test
+    public void nextSnapIndexBetweenSnaps() {
+        assertEquals(2, DragMath.findNextSnapIndex(SNAPS, 0.4f, 1));
+        assertEquals(1, DragMath.findNextSnapIndex(SNAPS, 0.4f, -1));
+    }
+
+    @Test
+    public void nextSnapIndexAtRangeEnds() {
+        assertEquals(3, DragMath.findNextSnapIndex(SNAPS, 1f, 1));
+        assertEquals(0, DragMath.findNextSnapIndex(SNAPS, 0f, -1));
+        assertEquals(1, DragMath.findNextSnapIndex(SNAPS, 0f, 1));
+        assertEquals(2, DragMath.findNextSnapIndex(SNAPS, 1f, -1));
+    }
+
+    @Test
+    public void snapIndexAt() {
+        assertEquals(1, DragMath.findSnapIndexAt(SNAPS, 0.3f, 0f));
+        assertEquals(1, DragMath.findSnapIndexAt(SNAPS, 0.305f, 0.01f));
+        assertEquals(-1, DragMath.findSnapIndexAt(SNAPS, 0.35f, 0.01f));
+        assertEquals(3, DragMath.findSnapIndexAt(SNAPS, 1f, 0.01f));
+    }
+
+    @Test
+    public void nextSnapReleaseOffset() {
+        assertEquals(0.6f, DragMath.computeReleaseOffset(SNAPS, 0.3f, 500f), 0);
+        assertEquals(0f, DragMath.computeReleaseOffset(SNAPS, 0.3f, -500f), 0);
+        assertEquals(0.3f, DragMath.computeReleaseOffset(SNAPS, 0.3f, 0f), 0);
+        assertEquals(0.6f, DragMath.computeReleaseOffset(SNAPS, 0.35f, 500f), 0);
+        assertEquals(0.3f, DragMath.computeReleaseOffset(SNAPS, 0.35f, -500f), 0);
+        assertEquals(1f, DragMath.computeReleaseOffset(SNAPS, 1f, 500f), 0);
+        assertEquals(0f, DragMath.computeReleaseOffset(SNAPS, 0f, -500f), 0);
+    }
+
+    @Test
+    public void rangeEndReleaseOffsetSkipsAnchors() {
+        assertEquals(1f, DragMath.computeRangeEndReleaseOffset(SNAPS, 0.3f, 500f), 0);
+        assertEquals(0f, DragMath.computeRangeEndReleaseOffset(SNAPS, 0.3f, -500f), 0);
+        assertEquals(1f, DragMath.computeRangeEndReleaseOffset(SNAPS, 0.05f, 1f), 0);
+        assertEquals(0f, DragMath.computeRangeEndReleaseOffset(SNAPS, 0.95f, -1f), 0);
+    }
+
+    @Test
+    public void rangeEndReleaseOffsetWithoutVelocity() {
+        assertEquals(0.3f, DragMath.computeRangeEndReleaseOffset(SNAPS, 0.3f, 0f), 0);
+        assertEquals(0.6f, DragMath.computeRangeEndReleaseOffset(SNAPS, 0.5f, 0f), 0);
+        assertEquals(0f, DragMath.computeRangeEndReleaseOffset(NO_ANCHORS, 0.4f, 0f), 0);
+        assertEquals(1f, DragMath.computeRangeEndReleaseOffset(NO_ANCHORS, 0.6f, 0f), 0);
+    }
+
+    @Test
+    public void rangeEndReleaseOffsetAtRangeEnds() {
+        assertEquals(1f, DragMath.computeRangeEndReleaseOffset(SNAPS, 1f, 500f), 0);
+        assertEquals(0f, DragMath.computeRangeEndReleaseOffset(SNAPS, 1f, -500f), 0);
+        assertEquals(0f, DragMath.computeRangeEndReleaseOffset(SNAPS, 0f, -500f), 0);
+        assertEquals(1f, DragMath.computeRangeEndReleaseOffset(SNAPS, 0f, 500f), 0);
+    }
+
+    @Test
+    public void projectedReleaseOffsetForBothDirections() {
+        // 0.3 + 0.25 lands nearest to 0.6; 0.3 - 0.25 lands nearest to 0
+        assertEquals(0.6f, DragMath.computeProjectedReleaseOffset(SNAPS, 0.3f, 1000f,
+                DECELERATION, SLIDE_RANGE), 0);
+        assertEquals(0f, DragMath.computeProjectedReleaseOffset(SNAPS, 0.3f, -1000f,
+                DECELERATION, SLIDE_RANGE), 0);
+        // A short fling does not leave the current snap
+        assertEquals(0.3f, DragMath.computeProjectedReleaseOffset(SNAPS, 0.3f, 400f,
+                DECELERATION, SLIDE_RANGE), 0);
+        assertEquals(0.3f, DragMath.computeProjectedReleaseOffset(SNAPS, 0.3f, -400f,
+                DECELERATION, SLIDE_RANGE), 0);
+    }
+
+    @Test
+    public void projectedReleaseOffsetAtBoundaries() {
+        assertEquals(0.6f, DragMath.computeProjectedReleaseOffset(SNAPS, 0.6f, 0f,
+                DECELERATION, SLIDE_RANGE), 0);
+        // Projections past either end settle at that end
+        assertEquals(1f, DragMath.computeProjectedReleaseOffset(SNAPS, 0.9f, 5000f,
+                DECELERATION, SLIDE_RANGE), 0);
+        assertEquals(0f, DragMath.computeProjectedReleaseOffset(SNAPS, 0.1f, -5000f,
+                DECELERATION, SLIDE_RANGE), 0);
+        assertEquals(1f, DragMath.computeProjectedReleaseOffset(SNAPS, 1f, 1000f,
+                DECELERATION, SLIDE_RANGE), 0);
+        // Without a slide range the velocity cannot be projected
+        assertEquals(0.3f, DragMath.computeProjectedReleaseOffset(SNAPS, 0.32f, 5000f,
+                DECELERATION, 0), 0);
+    }
+
+    @Test
+    public void decelerationDistanceKeepsSign() {
+        assertEquals(250f, DragMath.computeDecelerationDistance(1000f, DECELERATION), 0);
+        assertEquals(-250f, DragMath.computeDecelerationDistance(-1000f, DECELERATION), 0);
+        assertEquals(0f, DragMath.computeDecelerationDistance(0f, DECELERATION), 0);
+    }
+}
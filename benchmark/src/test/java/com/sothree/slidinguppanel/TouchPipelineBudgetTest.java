@@ -0,0 +1,410 @@
+package com.sothree.slidinguppanel;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.HorizontalScrollView;
+import android.widget.LinearLayout;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 不依赖设备的触摸流程基准
+ * 把合成的MotionEvent序列交给SlidingUpPanelLayout.dispatchTouchEvent，依次经过onInterceptTouchEvent、
+ * onTouchEvent、ViewDragHelper.processTouchEvent，每个事件后再跑一帧computeScroll和draw(drawChild)
+ * 用当前线程的CPU时间和分配计数统计每个事件、每个settle帧的开销，超出harness-budgets.properties中的预算时失败
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE, qualifiers = "w360dp-h640dp-xxhdpi")
+public class TouchPipelineBudgetTest {
+
+    private static final int PANEL_HEIGHT = 200;
+    private static final int HANDLE_HEIGHT = 120;
+    //120Hz的触摸采样和60Hz的帧
+    private static final long EVENT_INTERVAL = 8;
+    private static final long FRAME_INTERVAL = 16;
+    private static final int MAX_SETTLE_FRAMES = 300;
+    //先跑几轮预热，让类加载、JIT和各个缓存稳定下来，再取最后几轮的最小值
+    private static final int WARMUP_RUNS = 10;
+    private static final int MEASURED_RUNS = 5;
+
+    private static final List<String> sReport = new ArrayList<String>();
+
+    private final com.sun.management.ThreadMXBean mThreadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final long mThreadId = Thread.currentThread().getId();
+
+    private Properties mBudgets;
+    private Activity mActivity;
+    private SlidingUpPanelLayout mLayout;
+    private Canvas mCanvas;
+    private long mNow;
+    private boolean mSettled;
+
+    private final ViewDragHelper.Clock mClock = new ViewDragHelper.Clock() {
+        @Override
+        public long uptimeMillis() {
+            return mNow;
+        }
+    };
+
+    /**
+     * 一次场景运行的累计开销
+     */
+    private static final class Cost {
+        long eventCpuNanos;
+        long eventBytes;
+        int events;
+        long frameCpuNanos;
+        long frameBytes;
+        int frames;
+
+        long cpuMicrosPerEvent() {
+            return events > 0 ? eventCpuNanos / events / 1000 : 0;
+        }
+
+        long bytesPerEvent() {
+            return events > 0 ? eventBytes / events : 0;
+        }
+
+        long cpuMicrosPerFrame() {
+            return frames > 0 ? frameCpuNanos / frames / 1000 : 0;
+        }
+
+        long bytesPerFrame() {
+            return frames > 0 ? frameBytes / frames : 0;
+        }
+    }
+
+    /**
+     * 一个场景：按顺序产生触摸事件，结束后检查panel的状态
+     */
+    private interface Scenario {
+        void setUp(SlidingUpPanelLayout layout);
+
+        void run(Cost cost);
+
+        void verify(SlidingUpPanelLayout layout);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mBudgets = new Properties();
+        final String path = System.getProperty("harness.budgets");
+        if (path != null) {
+            InputStream in = new FileInputStream(path);
+            try {
+                mBudgets.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        mActivity = Robolectric.buildActivity(Activity.class).setup().get();
+    }
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        final String path = System.getProperty("harness.report");
+        if (path == null || sReport.isEmpty()) {
+            return;
+        }
+        Writer writer = new FileWriter(path);
+        try {
+            for (String line : sReport) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void dragHandle() {
+        measure("dragHandle", new Scenario() {
+            @Override
+            public void setUp(SlidingUpPanelLayout layout) {
+            }
+
+            @Override
+            public void run(Cost cost) {
+                //在handle上慢慢向上拖过半个range再松手
+                drag(cost, 540, handleY(), 0, -20, 50);
+                settle(cost);
+            }
+
+            @Override
+            public void verify(SlidingUpPanelLayout layout) {
+                assertTrue(layout.isExpanded());
+            }
+        });
+    }
+
+    @Test
+    public void flingToAnchor() {
+        measure("flingToAnchor", new Scenario() {
+            @Override
+            public void setUp(SlidingUpPanelLayout layout) {
+                layout.setAnchorPoint(0.5f);
+                layout.setReleaseMode(SlidingUpPanelLayout.RELEASE_MODE_NEXT_SNAP);
+            }
+
+            @Override
+            public void run(Cost cost) {
+                //短促的快速上滑，速度足够越过收起位置，停在锚点
+                drag(cost, 540, handleY(), 0, -40, 12);
+                settle(cost);
+            }
+
+            @Override
+            public void verify(SlidingUpPanelLayout layout) {
+                assertTrue(layout.isAnchored());
+            }
+        });
+    }
+
+    @Test
+    public void horizontalSwipe() {
+        measure("horizontalSwipe", new Scenario() {
+            @Override
+            public void setUp(SlidingUpPanelLayout layout) {
+                layout.setEnableDragViewTouchEvents(true);
+            }
+
+            @Override
+            public void run(Cost cost) {
+                //handle上的横向滑动交给HorizontalScrollView，panel不动，松手后也没有settle
+                drag(cost, 900, handleY(), -30, 0, 20);
+            }
+
+            @Override
+            public void verify(SlidingUpPanelLayout layout) {
+                assertFalse(layout.isExpanded());
+                assertFalse(layout.isAnchored());
+            }
+        });
+    }
+
+    @Test
+    public void tapToggle() {
+        measure("tapToggle", new Scenario() {
+            @Override
+            public void setUp(SlidingUpPanelLayout layout) {
+            }
+
+            @Override
+            public void run(Cost cost) {
+                drag(cost, 540, handleY(), 0, 0, 0);
+                settle(cost);
+            }
+
+            @Override
+            public void verify(SlidingUpPanelLayout layout) {
+                assertTrue(layout.isExpanded());
+            }
+        });
+    }
+
+    /**
+     * 预热后多次运行场景，取最小值与预算比较
+     */
+    private void measure(String name, Scenario scenario) {
+        Cost best = null;
+        for (int i = 0; i < WARMUP_RUNS + MEASURED_RUNS; i++) {
+            createLayout();
+            scenario.setUp(mLayout);
+            final Cost cost = new Cost();
+            scenario.run(cost);
+            scenario.verify(mLayout);
+            if (i < WARMUP_RUNS) {
+                continue;
+            }
+            if (best == null) {
+                best = cost;
+            } else {
+                best.eventCpuNanos = Math.min(best.eventCpuNanos, cost.eventCpuNanos);
+                best.eventBytes = Math.min(best.eventBytes, cost.eventBytes);
+                best.frameCpuNanos = Math.min(best.frameCpuNanos, cost.frameCpuNanos);
+                best.frameBytes = Math.min(best.frameBytes, cost.frameBytes);
+            }
+        }
+
+        final String line = String.format(Locale.US,
+                "%-16s events=%3d cpu=%5dus/event alloc=%6dB/event frames=%3d cpu=%5dus/frame alloc=%6dB/frame",
+                name, best.events, best.cpuMicrosPerEvent(), best.bytesPerEvent(),
+                best.frames, best.cpuMicrosPerFrame(), best.bytesPerFrame());
+        System.out.println(line);
+        sReport.add(line);
+
+        final StringBuilder failures = new StringBuilder();
+        checkBudget(failures, name, "cpuMicrosPerEvent", best.cpuMicrosPerEvent());
+        checkBudget(failures, name, "bytesPerEvent", best.bytesPerEvent());
+        if (best.frames > 0) {
+            checkBudget(failures, name, "cpuMicrosPerFrame", best.cpuMicrosPerFrame());
+            checkBudget(failures, name, "bytesPerFrame", best.bytesPerFrame());
+        }
+        if (failures.length() > 0) {
+            fail(name + " exceeded budget:" + failures);
+        }
+    }
+
+    private void checkBudget(StringBuilder failures, String name, String metric, long value) {
+        final String budget = mBudgets.getProperty(name + "." + metric);
+        if (budget != null && value > Long.parseLong(budget.trim())) {
+            failures.append(' ').append(metric).append('=').append(value)
+                    .append(" > ").append(budget.trim());
+        }
+    }
+
+    /**
+     * 每次运行都重新创建layout，保证场景从收起状态开始
+     */
+    private void createLayout() {
+        mNow = 1000;
+        mSettled = false;
+
+        //没有资源可用，从代码创建，只通过属性把panel放在底部
+        final AttributeSet attrs = Robolectric.buildAttributeSet()
+                .addAttribute(android.R.attr.gravity, "bottom")
+                .build();
+        mLayout = new SlidingUpPanelLayout(mActivity, attrs);
+        mLayout.setClock(mClock);
+
+        final FrameLayout main = new FrameLayout(mActivity);
+        main.setBackgroundColor(Color.WHITE);
+        mLayout.addView(main, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        final LinearLayout panel = new LinearLayout(mActivity);
+        panel.setOrientation(LinearLayout.VERTICAL);
+        panel.setBackgroundColor(Color.GRAY);
+        final HorizontalScrollView handle = new HorizontalScrollView(mActivity);
+        final View strip = new View(mActivity);
+        handle.addView(strip, new ViewGroup.LayoutParams(4000, HANDLE_HEIGHT));
+        panel.addView(handle, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, HANDLE_HEIGHT));
+        mLayout.addView(panel, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        mLayout.setPanelHeight(PANEL_HEIGHT);
+        mLayout.setDragView(handle);
+        mLayout.setPanelSlideListener(new SlidingUpPanelLayout.PanelSlideListener() {
+            @Override
+            public void onPanelSlide(View panel, float slideOffset) {
+            }
+
+            @Override
+            public void onPanelCollapsed(View panel) {
+                mSettled = true;
+            }
+
+            @Override
+            public void onPanelExpanded(View panel) {
+                mSettled = true;
+            }
+
+            @Override
+            public void onPanelAnchored(View panel) {
+                mSettled = true;
+            }
+        });
+
+        mActivity.setContentView(mLayout);
+        idle();
+        if (mCanvas == null || mCanvas.getWidth() != mLayout.getWidth()
+                || mCanvas.getHeight() != mLayout.getHeight()) {
+            mCanvas = new Canvas(Bitmap.createBitmap(mLayout.getWidth(), mLayout.getHeight(),
+                    Bitmap.Config.ARGB_8888));
+        }
+    }
+
+    private int handleY() {
+        return mLayout.getHeight() - PANEL_HEIGHT + HANDLE_HEIGHT / 2;
+    }
+
+    /**
+     * 按下、移动steps次、抬起，steps为0时就是一次点击
+     */
+    private void drag(Cost cost, float x, float y, float stepX, float stepY, int steps) {
+        final long downTime = mNow;
+        dispatch(cost, downTime, MotionEvent.ACTION_DOWN, x, y);
+        for (int i = 0; i < steps; i++) {
+            x += stepX;
+            y += stepY;
+            dispatch(cost, downTime, MotionEvent.ACTION_MOVE, x, y);
+        }
+        dispatch(cost, downTime, MotionEvent.ACTION_UP, x, y);
+    }
+
+    /**
+     * 分发一个事件并跑一帧，计入事件的开销
+     * 事件对象在计量区间之外创建和回收，只统计layout自身的开销
+     */
+    private void dispatch(Cost cost, long downTime, int action, float x, float y) {
+        mNow += EVENT_INTERVAL;
+        final MotionEvent ev = MotionEvent.obtain(downTime, mNow, action, x, y, 0);
+        final long cpu = mThreadBean.getCurrentThreadCpuTime();
+        final long bytes = mThreadBean.getThreadAllocatedBytes(mThreadId);
+        mLayout.dispatchTouchEvent(ev);
+        frame();
+        cost.eventBytes += mThreadBean.getThreadAllocatedBytes(mThreadId) - bytes;
+        cost.eventCpuNanos += mThreadBean.getCurrentThreadCpuTime() - cpu;
+        cost.events++;
+        ev.recycle();
+        idle();
+    }
+
+    /**
+     * 松手后逐帧推进，直到panel停在某个位置
+     */
+    private void settle(Cost cost) {
+        for (int i = 0; i < MAX_SETTLE_FRAMES && !mSettled; i++) {
+            mNow += FRAME_INTERVAL;
+            final long cpu = mThreadBean.getCurrentThreadCpuTime();
+            final long bytes = mThreadBean.getThreadAllocatedBytes(mThreadId);
+            frame();
+            cost.frameBytes += mThreadBean.getThreadAllocatedBytes(mThreadId) - bytes;
+            cost.frameCpuNanos += mThreadBean.getCurrentThreadCpuTime() - cpu;
+            cost.frames++;
+            //settle结束时STATE_IDLE是post出去的，在计量区间外执行
+            idle();
+        }
+    }
+
+    private void frame() {
+        mLayout.computeScroll();
+        mLayout.draw(mCanvas);
+    }
+
+    private void idle() {
+        ShadowLooper.idleMainLooper();
+    }
+}
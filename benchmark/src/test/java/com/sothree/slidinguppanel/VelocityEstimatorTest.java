@@ -0,0 +1,123 @@
+package com.sothree.slidinguppanel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Plain JVM checks of the least squares fit in {@link VelocityEstimator}.
+ */
+public class VelocityEstimatorTest {
+
+    private static final float EPSILON = 1e-3f;
+
+    @Test
+    public void slopeOfLinearTrace() {
+        final VelocityEstimator estimator = new VelocityEstimator();
+        // 2 px/ms along x, -0.5 px/ms along y, sampled every 8 ms
+        for (int i = 0; i < 10; i++) {
+            estimator.addSample(1000 + i * 8, 10 + i * 16, 300 - i * 4);
+        }
+        estimator.computeCurrentVelocity(1000, Float.MAX_VALUE);
+        assertEquals(2000f, estimator.getXVelocity(), EPSILON);
+        assertEquals(-500f, estimator.getYVelocity(), EPSILON);
+
+        estimator.computeCurrentVelocity(1, Float.MAX_VALUE);
+        assertEquals(2f, estimator.getXVelocity(), EPSILON);
+        assertEquals(-0.5f, estimator.getYVelocity(), EPSILON);
+    }
+
+    @Test
+    public void clampsToMaxVelocity() {
+        final VelocityEstimator estimator = new VelocityEstimator();
+        estimator.addSample(0, 0, 0);
+        estimator.addSample(8, 80, -80);
+        estimator.computeCurrentVelocity(1000, 4000);
+        assertEquals(4000f, estimator.getXVelocity(), 0);
+        assertEquals(-4000f, estimator.getYVelocity(), 0);
+    }
+
+    @Test
+    public void ringBufferWrapsAround() {
+        final VelocityEstimator estimator = new VelocityEstimator(4, 1000);
+        // Six samples at 5 px/ms, then four at 1 px/ms; only the last four fit in the buffer
+        float x = 0;
+        long time = 0;
+        for (int i = 0; i < 6; i++) {
+            estimator.addSample(time, x, 0);
+            time += 10;
+            x += 50;
+        }
+        for (int i = 0; i < 4; i++) {
+            estimator.addSample(time, x, 0);
+            time += 10;
+            x += 10;
+        }
+        assertEquals(4, estimator.getSampleCount());
+        assertEquals(90, estimator.getLastSampleTime());
+        assertEquals(330f, estimator.getLastX(), 0);
+
+        estimator.computeCurrentVelocity(1000, Float.MAX_VALUE);
+        assertEquals(1000f, estimator.getXVelocity(), EPSILON);
+        assertEquals(0f, estimator.getYVelocity(), 0);
+    }
+
+    @Test
+    public void ignoresSamplesOutsideHorizonAndAfterPause() {
+        final VelocityEstimator estimator = new VelocityEstimator(32, 100);
+        // Older than the 100 ms horizon relative to the newest sample
+        estimator.addSample(0, 0, 0);
+        estimator.addSample(10, 1000, 0);
+        // A 50 ms gap means the pointer stopped; only the samples after it count
+        estimator.addSample(60, 0, 0);
+        estimator.addSample(70, 30, 0);
+        estimator.addSample(80, 60, 0);
+        estimator.computeCurrentVelocity(1000, Float.MAX_VALUE);
+        assertEquals(3000f, estimator.getXVelocity(), EPSILON);
+    }
+
+    @Test
+    public void ignoresOutOfOrderSample() {
+        final VelocityEstimator estimator = new VelocityEstimator();
+        estimator.addSample(100, 0, 0);
+        estimator.addSample(110, 10, 0);
+        estimator.addSample(105, 500, 0);
+        assertEquals(2, estimator.getSampleCount());
+        estimator.computeCurrentVelocity(1000, Float.MAX_VALUE);
+        assertEquals(1000f, estimator.getXVelocity(), EPSILON);
+    }
+
+    @Test
+    public void clearDropsSamplesAndVelocity() {
+        final VelocityEstimator estimator = new VelocityEstimator(4, 1000);
+        for (int i = 0; i < 6; i++) {
+            estimator.addSample(i * 10, i * 20, i * 20);
+        }
+        estimator.computeCurrentVelocity(1000, Float.MAX_VALUE);
+        assertEquals(2000f, estimator.getXVelocity(), EPSILON);
+
+        estimator.clear();
+        assertEquals(0, estimator.getSampleCount());
+        assertEquals(0, estimator.getLastSampleTime());
+        assertEquals(0f, estimator.getLastX(), 0);
+        assertEquals(0f, estimator.getLastY(), 0);
+        assertEquals(0f, estimator.getXVelocity(), 0);
+        assertEquals(0f, estimator.getYVelocity(), 0);
+
+        // A single sample gives no velocity
+        estimator.addSample(500, 100, 100);
+        estimator.computeCurrentVelocity(1000, Float.MAX_VALUE);
+        assertEquals(0f, estimator.getXVelocity(), 0);
+
+        // Samples from before the clear no longer take part in the fit
+        estimator.addSample(510, 95, 100);
+        estimator.computeCurrentVelocity(1000, Float.MAX_VALUE);
+        assertEquals(-500f, estimator.getXVelocity(), EPSILON);
+        assertEquals(0f, estimator.getYVelocity(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityBelowTwo() {
+        new VelocityEstimator(1, 100);
+    }
+}
@@ -0,0 +1,169 @@
+package com.sothree.slidinguppanel;
+
+import android.content.Context;
+
+/**
+ * A {@link ScrollerCompat} whose settle animation is computed against an injected
+ * {@link ViewDragHelper.Clock} instead of the platform animation clock. Given the same
+ * clock readings it always produces the same positions, which is what makes gesture
+ * replay reproducible. Flings follow a constant-deceleration curve instead of the platform
+ * spline and do not overfling.
+ */
+class ClockedScrollerCompat extends ScrollerCompat {
+
+    /**
+     * Deceleration applied to flings, in dips per second squared.
+     */
+    private static final int FLING_DECELERATION = 4000;
+
+    private final ViewDragHelper.Clock mClock;
+    private final float mDeceleration;
+
+    private long mStartTime;
+    private int mDuration;
+    private int mStartX;
+    private int mStartY;
+    private int mFinalX;
+    private int mFinalY;
+    private int mCurrX;
+    private int mCurrY;
+    private boolean mFinished = true;
+
+    // Fling state; velocities in pixels per second
+    private boolean mFlinging;
+    private float mVelocityX;
+    private float mVelocityY;
+
+    ClockedScrollerCompat(Context context, ViewDragHelper.Clock clock) {
+        super(context, null);
+        mClock = clock;
+        mDeceleration = FLING_DECELERATION * context.getResources().getDisplayMetrics().density;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    @Override
+    public int getCurrX() {
+        return mCurrX;
+    }
+
+    @Override
+    public int getCurrY() {
+        return mCurrY;
+    }
+
+    @Override
+    public int getFinalX() {
+        return mFinalX;
+    }
+
+    @Override
+    public int getFinalY() {
+        return mFinalY;
+    }
+
+    @Override
+    public float getCurrVelocity() {
+        if (mFinished || !mFlinging) {
+            return 0;
+        }
+        final float t = (mClock.uptimeMillis() - mStartTime) / 1000f;
+        final float speed = (float) Math.hypot(mVelocityX, mVelocityY);
+        return Math.max(0, speed - mDeceleration * t);
+    }
+
+    @Override
+    public boolean computeScrollOffset() {
+        if (mFinished) {
+            return false;
+        }
+
+        final long elapsed = mClock.uptimeMillis() - mStartTime;
+        if (elapsed < mDuration && mFlinging) {
+            final float t = elapsed / 1000f;
+            mCurrX = flingPosition(mStartX, mFinalX, mVelocityX, t);
+            mCurrY = flingPosition(mStartY, mFinalY, mVelocityY, t);
+        } else if (elapsed < mDuration) {
+            final float t = DragMath.quinticInterpolation((float) elapsed / mDuration);
+            mCurrX = mStartX + Math.round(t * (mFinalX - mStartX));
+            mCurrY = mStartY + Math.round(t * (mFinalY - mStartY));
+        } else {
+            mCurrX = mFinalX;
+            mCurrY = mFinalY;
+            mFinished = true;
+        }
+        return true;
+    }
+
+    @Override
+    public void startScroll(int startX, int startY, int dx, int dy) {
+        startScroll(startX, startY, dx, dy, DragMath.BASE_SETTLE_DURATION);
+    }
+
+    @Override
+    public void startScroll(int startX, int startY, int dx, int dy, int duration) {
+        mStartTime = mClock.uptimeMillis();
+        mDuration = duration;
+        mStartX = mCurrX = startX;
+        mStartY = mCurrY = startY;
+        mFinalX = startX + dx;
+        mFinalY = startY + dy;
+        mFlinging = false;
+        mFinished = false;
+    }
+
+    @Override
+    public void fling(int startX, int startY, int velocityX, int velocityY,
+            int minX, int maxX, int minY, int maxY) {
+        mStartTime = mClock.uptimeMillis();
+        mStartX = mCurrX = startX;
+        mStartY = mCurrY = startY;
+        mVelocityX = velocityX;
+        mVelocityY = velocityY;
+        mFinalX = clamp(startX + Math.round(
+                DragMath.computeDecelerationDistance(velocityX, mDeceleration)), minX, maxX);
+        mFinalY = clamp(startY + Math.round(
+                DragMath.computeDecelerationDistance(velocityY, mDeceleration)), minY, maxY);
+        final float duration = Math.max(
+                DragMath.computeDecelerationTime(velocityX, mDeceleration, mFinalX - startX),
+                DragMath.computeDecelerationTime(velocityY, mDeceleration, mFinalY - startY));
+        mDuration = (int) Math.ceil(duration * 1000);
+        mFlinging = true;
+        mFinished = false;
+    }
+
+    @Override
+    public void fling(int startX, int startY, int velocityX, int velocityY,
+            int minX, int maxX, int minY, int maxY, int overX, int overY) {
+        // Overfling is not supported; behave like the platform Scroller.
+        fling(startX, startY, velocityX, velocityY, minX, maxX, minY, maxY);
+    }
+
+    @Override
+    public void abortAnimation() {
+        mCurrX = mFinalX;
+        mCurrY = mFinalY;
+        mFinished = true;
+    }
+
+    @Override
+    public boolean isOverScrolled() {
+        return false;
+    }
+
+    /**
+     * Position along one axis of the fling in progress, never past the final position.
+     */
+    private int flingPosition(int start, int end, float velocity, float t) {
+        final int position = start + Math.round(
+                DragMath.computeDeceleratedDistance(velocity, mDeceleration, t));
+        return start <= end ? clamp(position, start, end) : clamp(position, end, start);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.min(Math.max(value, min), max);
+    }
+}
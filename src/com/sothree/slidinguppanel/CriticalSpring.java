@@ -0,0 +1,134 @@
+package com.sothree.slidinguppanel;
+
+/**
+ * Closed-form critically damped spring along a single axis.
+ *
+ * <p>The motion towards the target is x(t) = target + (c1 + c2 * t) * e^(-w * t), which
+ * never overshoots and needs no per-frame integration. The spring can be retargeted at any
+ * time while keeping position and velocity continuous. No allocation happens after
+ * construction.</p>
+ */
+final class CriticalSpring {
+    /**
+     * Upper bound for {@link #estimateSettleTime}, in milliseconds.
+     */
+    static final int MAX_SETTLE_TIME = 10000;
+
+    private static final int ESTIMATE_STEP = 16; // ms
+
+    private float mOmega;
+
+    private long mStartTime;
+    private float mTarget;
+    private float mC1;
+    private float mC2;
+
+    private float mPosition;
+    private float mVelocity;
+
+    CriticalSpring(float stiffness) {
+        setStiffness(stiffness);
+    }
+
+    /**
+     * @param stiffness Spring stiffness for a unit mass; the natural frequency is its root
+     */
+    void setStiffness(float stiffness) {
+        mOmega = (float) Math.sqrt(stiffness);
+    }
+
+    /**
+     * Start a new motion.
+     *
+     * @param now Current time in milliseconds
+     * @param position Start position in pixels
+     * @param velocity Start velocity in pixels per second
+     * @param target Rest position in pixels
+     */
+    void start(long now, float position, float velocity, float target) {
+        mStartTime = now;
+        mTarget = target;
+        mC1 = position - target;
+        mC2 = velocity + mOmega * mC1;
+        mPosition = position;
+        mVelocity = velocity;
+    }
+
+    /**
+     * Move the rest position without a discontinuity in position or velocity.
+     *
+     * @param now Current time in milliseconds
+     * @param target New rest position in pixels
+     */
+    void retarget(long now, float target) {
+        update(now);
+        start(now, mPosition, mVelocity, target);
+    }
+
+    /**
+     * Evaluate the spring at the given time.
+     *
+     * @param now Current time in milliseconds
+     */
+    void update(long now) {
+        final float t = (now - mStartTime) / 1000f;
+        final float decay = (float) Math.exp(-mOmega * t);
+        final float c = mC1 + mC2 * t;
+        mPosition = mTarget + c * decay;
+        mVelocity = (mC2 - mOmega * c) * decay;
+    }
+
+    /**
+     * @param positionThreshold Distance from the target in pixels considered at rest
+     * @param velocityThreshold Speed in pixels per second considered at rest
+     * @return true if the last evaluated state is close enough to stop
+     */
+    boolean isAtRest(float positionThreshold, float velocityThreshold) {
+        return Math.abs(mPosition - mTarget) < positionThreshold
+                && Math.abs(mVelocity) < velocityThreshold;
+    }
+
+    /**
+     * Estimate how long the current motion takes to come to rest, measured from the last
+     * {@link #start} or {@link #retarget}. The motion is sampled at frame-sized steps and the
+     * crossing is then refined to the millisecond.
+     *
+     * @param positionThreshold Distance from the target in pixels considered at rest
+     * @param velocityThreshold Speed in pixels per second considered at rest
+     * @return Estimated settle time in milliseconds, capped at {@link #MAX_SETTLE_TIME}
+     */
+    int estimateSettleTime(float positionThreshold, float velocityThreshold) {
+        int t = 0;
+        while (t < MAX_SETTLE_TIME && !isAtRestAt(t, positionThreshold, velocityThreshold)) {
+            t += ESTIMATE_STEP;
+        }
+        if (t >= MAX_SETTLE_TIME) {
+            return MAX_SETTLE_TIME;
+        }
+        int lo = Math.max(0, t - ESTIMATE_STEP);
+        while (lo < t && !isAtRestAt(lo, positionThreshold, velocityThreshold)) {
+            lo++;
+        }
+        return lo;
+    }
+
+    private boolean isAtRestAt(int timeMillis, float positionThreshold, float velocityThreshold) {
+        final float t = timeMillis / 1000f;
+        final float decay = (float) Math.exp(-mOmega * t);
+        final float c = mC1 + mC2 * t;
+        return Math.abs(c * decay) < positionThreshold
+                && Math.abs((mC2 - mOmega * c) * decay) < velocityThreshold;
+    }
+
+    float getPosition() {
+        return mPosition;
+    }
+
+    float getVelocity() {
+        return mVelocity;
+    }
+
+    float getTarget() {
+        return mTarget;
+    }
+}
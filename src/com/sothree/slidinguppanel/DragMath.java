@@ -0,0 +1,333 @@
+package com.sothree.slidinguppanel;
+
+/**
+ * Framework-free decision and timing math shared by {@link ViewDragHelper} and
+ * {@link SlidingUpPanelLayout}. Nothing in here touches View or Context, so it can be
+ * exercised directly on a plain JVM.
+ */
+public final class DragMath {
+
+    /**
+     * Base duration of a settle without any velocity, in milliseconds.
+     */
+    public static final int BASE_SETTLE_DURATION = 256; // ms
+
+    /**
+     * Upper bound for any settle duration, in milliseconds.
+     */
+    public static final int MAX_SETTLE_DURATION = 600; // ms
+
+    private DragMath() {
+    }
+
+    /**
+     * Quintic ease-out curve used for settling the captured view.
+     *
+     * @param t Elapsed fraction of the animation in [0, 1]
+     * @return Interpolated fraction of the distance travelled
+     */
+    public static float quinticInterpolation(float t) {
+        t -= 1.0f;
+        return t * t * t * t * t + 1.0f;
+    }
+
+    /**
+     * Compute how long a settle over (dx, dy) should take given the release velocity.
+     *
+     * @param dx Distance to travel along the X axis
+     * @param dy Distance to travel along the Y axis
+     * @param xvel Horizontal release velocity in pixels per second
+     * @param yvel Vertical release velocity in pixels per second
+     * @param minVel Minimum significant velocity in pixels per second
+     * @param maxVel Maximum velocity in pixels per second
+     * @param horizontalRange Horizontal drag range of the settling view
+     * @param verticalRange Vertical drag range of the settling view
+     * @param parentWidth Width of the parent view in pixels
+     * @return Settle duration in milliseconds
+     */
+    public static int computeSettleDuration(int dx, int dy, int xvel, int yvel,
+            int minVel, int maxVel, int horizontalRange, int verticalRange, int parentWidth) {
+        xvel = clampMag(xvel, minVel, maxVel);
+        yvel = clampMag(yvel, minVel, maxVel);
+        final int absDx = Math.abs(dx);
+        final int absDy = Math.abs(dy);
+        final int absXVel = Math.abs(xvel);
+        final int absYVel = Math.abs(yvel);
+        final int addedVel = absXVel + absYVel;
+        final int addedDistance = absDx + absDy;
+
+        final float xweight = xvel != 0 ? (float) absXVel / addedVel :
+                (float) absDx / addedDistance;
+        final float yweight = yvel != 0 ? (float) absYVel / addedVel :
+                (float) absDy / addedDistance;
+
+        int xduration = computeAxisDuration(dx, xvel, horizontalRange, parentWidth);
+        int yduration = computeAxisDuration(dy, yvel, verticalRange, parentWidth);
+
+        return (int) (xduration * xweight + yduration * yweight);
+    }
+
+    /**
+     * Compute the settle duration along a single axis.
+     *
+     * @param delta Distance to travel in pixels
+     * @param velocity Release velocity along this axis in pixels per second
+     * @param motionRange Drag range along this axis in pixels
+     * @param parentWidth Width of the parent view in pixels
+     * @return Duration in milliseconds, capped at {@link #MAX_SETTLE_DURATION}
+     */
+    public static int computeAxisDuration(int delta, int velocity, int motionRange,
+            int parentWidth) {
+        if (delta == 0) {
+            return 0;
+        }
+
+        final int halfWidth = parentWidth / 2;
+        final float distanceRatio = Math.min(1f, (float) Math.abs(delta) / parentWidth);
+        final float distance = halfWidth + halfWidth *
+                distanceInfluenceForSnapDuration(distanceRatio);
+
+        int duration;
+        velocity = Math.abs(velocity);
+        if (velocity > 0) {
+            duration = 4 * Math.round(1000 * Math.abs(distance / velocity));
+        } else {
+            final float range = (float) Math.abs(delta) / motionRange;
+            duration = (int) ((range + 1) * BASE_SETTLE_DURATION);
+        }
+        return Math.min(duration, MAX_SETTLE_DURATION);
+    }
+
+    /**
+     * Clamp the magnitude of value for absMin and absMax.
+     * If the value is below the minimum, it will be clamped to zero.
+     * If the value is above the maximum, it will be clamped to the maximum.
+     *
+     * @param value Value to clamp
+     * @param absMin Absolute value of the minimum significant value to return
+     * @param absMax Absolute value of the maximum value to return
+     * @return The clamped value with the same sign as <code>value</code>
+     */
+    public static int clampMag(int value, int absMin, int absMax) {
+        final int absValue = Math.abs(value);
+        if (absValue < absMin) return 0;
+        if (absValue > absMax) return value > 0 ? absMax : -absMax;
+        return value;
+    }
+
+    /**
+     * Clamp the magnitude of value for absMin and absMax.
+     * If the value is below the minimum, it will be clamped to zero.
+     * If the value is above the maximum, it will be clamped to the maximum.
+     *
+     * @param value Value to clamp
+     * @param absMin Absolute value of the minimum significant value to return
+     * @param absMax Absolute value of the maximum value to return
+     * @return The clamped value with the same sign as <code>value</code>
+     */
+    public static float clampMag(float value, float absMin, float absMax) {
+        final float absValue = Math.abs(value);
+        if (absValue < absMin) return 0;
+        if (absValue > absMax) return value > 0 ? absMax : -absMax;
+        return value;
+    }
+
+    /**
+     * Weight a distance ratio so that short and long snaps take similar time.
+     *
+     * @param f Distance travelled as a fraction of the parent width, in [0, 1]
+     * @return Influence in roughly [-0.23, 0.23]
+     */
+    public static float distanceInfluenceForSnapDuration(float f) {
+        f -= 0.5f; // center the values about 0.
+        f *= 0.3f * Math.PI / 2.0f;
+        return (float) Math.sin(f);
+    }
+
+    /**
+     * Find the snap offset closest to the given offset by binary search.
+     *
+     * @param snapOffsets Snap offsets sorted in ascending order, at least one element
+     * @param offset Offset to look up
+     * @return Index of the closest snap offset
+     */
+    public static int findNearestSnapIndex(float[] snapOffsets, float offset) {
+        int lo = 0;
+        int hi = snapOffsets.length - 1;
+        if (offset <= snapOffsets[lo]) return lo;
+        if (offset >= snapOffsets[hi]) return hi;
+        while (hi - lo > 1) {
+            final int mid = (lo + hi) >>> 1;
+            if (snapOffsets[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return offset - snapOffsets[lo] < snapOffsets[hi] - offset ? lo : hi;
+    }
+
+    /**
+     * Find the first snap offset strictly beyond the given offset in the given direction
+     * by binary search.
+     *
+     * @param snapOffsets Snap offsets sorted in ascending order, at least one element
+     * @param offset Offset to start from
+     * @param direction Positive to search towards larger offsets, negative towards smaller ones
+     * @return Index of the next snap offset, or the last index in that direction if there is
+     *         none beyond the offset
+     */
+    public static int findNextSnapIndex(float[] snapOffsets, float offset, int direction) {
+        int lo = 0;
+        int hi = snapOffsets.length;
+        if (direction > 0) {
+            // First index with snapOffsets[i] > offset
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (snapOffsets[mid] <= offset) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return Math.min(lo, snapOffsets.length - 1);
+        } else {
+            // Last index with snapOffsets[i] < offset
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (snapOffsets[mid] < offset) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return Math.max(lo - 1, 0);
+        }
+    }
+
+    /**
+     * Find the snap offset the given offset rests on.
+     *
+     * @param snapOffsets Snap offsets sorted in ascending order, at least one element
+     * @param offset Offset to look up
+     * @param tolerance Maximum distance from a snap offset still considered resting on it
+     * @return Index of the snap offset, or -1 if the offset is not on any snap offset
+     */
+    public static int findSnapIndexAt(float[] snapOffsets, float offset, float tolerance) {
+        final int index = findNearestSnapIndex(snapOffsets, offset);
+        return Math.abs(snapOffsets[index] - offset) <= tolerance ? index : -1;
+    }
+
+    /**
+     * Choose the offset a released panel should settle at. A release with velocity settles
+     * at the next snap offset in the direction of motion; a release without velocity settles
+     * at the closest snap offset.
+     *
+     * @param snapOffsets Snap offsets sorted in ascending order, including both ends of the range
+     * @param slideOffset Current slide offset
+     * @param offsetVelocity Release velocity expressed along the offset axis; positive values
+     *                       move towards larger offsets
+     * @return Slide offset the panel should settle at
+     */
+    public static float computeReleaseOffset(float[] snapOffsets, float slideOffset,
+            float offsetVelocity) {
+        final int index;
+        if (offsetVelocity > 0) {
+            index = findNextSnapIndex(snapOffsets, slideOffset, 1);
+        } else if (offsetVelocity < 0) {
+            index = findNextSnapIndex(snapOffsets, slideOffset, -1);
+        } else {
+            index = findNearestSnapIndex(snapOffsets, slideOffset);
+        }
+        return snapOffsets[index];
+    }
+
+    /**
+     * Choose the offset a released panel should settle at, the way a single-anchor panel
+     * always did. A release with velocity settles at the end of the range in the direction
+     * of motion, skipping any snap offsets in between; a release without velocity settles
+     * at the closest snap offset.
+     *
+     * @param snapOffsets Snap offsets sorted in ascending order, including both ends of the range
+     * @param slideOffset Current slide offset
+     * @param offsetVelocity Release velocity expressed along the offset axis; positive values
+     *                       move towards larger offsets
+     * @return Slide offset the panel should settle at
+     */
+    public static float computeRangeEndReleaseOffset(float[] snapOffsets, float slideOffset,
+            float offsetVelocity) {
+        if (offsetVelocity > 0) {
+            return snapOffsets[snapOffsets.length - 1];
+        } else if (offsetVelocity < 0) {
+            return snapOffsets[0];
+        }
+        return snapOffsets[findNearestSnapIndex(snapOffsets, slideOffset)];
+    }
+
+    /**
+     * Project where a released panel would come to rest under constant deceleration and
+     * choose the snap offset closest to that point.
+     *
+     * @param snapOffsets Snap offsets sorted in ascending order, including both ends of the range
+     * @param slideOffset Current slide offset
+     * @param offsetVelocity Release velocity along the offset axis in pixels per second;
+     *                       positive values move towards larger offsets
+     * @param deceleration Deceleration in pixels per second squared, must be positive
+     * @param slideRange Distance in pixels between offsets 0 and 1
+     * @return Slide offset the panel should settle at
+     */
+    public static float computeProjectedReleaseOffset(float[] snapOffsets, float slideOffset,
+            float offsetVelocity, float deceleration, int slideRange) {
+        float projected = slideOffset;
+        if (slideRange > 0) {
+            projected += computeDecelerationDistance(offsetVelocity, deceleration) / slideRange;
+        }
+        return snapOffsets[findNearestSnapIndex(snapOffsets, projected)];
+    }
+
+    /**
+     * Compute how far a motion travels when it starts at the given velocity and slows down
+     * at a constant rate until it stops.
+     *
+     * @param velocity Start velocity in pixels per second
+     * @param deceleration Deceleration in pixels per second squared, must be positive
+     * @return Distance in pixels with the same sign as <code>velocity</code>
+     */
+    public static float computeDecelerationDistance(float velocity, float deceleration) {
+        // v^2 = 2 * a * d
+        return velocity * Math.abs(velocity) / (2 * deceleration);
+    }
+
+    /**
+     * Compute how long a constant-deceleration motion takes to cover the given distance.
+     * Distances beyond the stopping distance take the time needed to stop.
+     *
+     * @param velocity Start velocity in pixels per second
+     * @param deceleration Deceleration in pixels per second squared, must be positive
+     * @param distance Distance to cover in pixels; the sign is ignored
+     * @return Time in seconds
+     */
+    public static float computeDecelerationTime(float velocity, float deceleration,
+            float distance) {
+        final float speed = Math.abs(velocity);
+        // d = v * t - a * t^2 / 2, the earlier of the two roots
+        final float discriminant = Math.max(0,
+                speed * speed - 2 * deceleration * Math.abs(distance));
+        return (speed - (float) Math.sqrt(discriminant)) / deceleration;
+    }
+
+    /**
+     * Compute the distance travelled by a constant-deceleration motion after the given time.
+     * The motion holds its position once it has stopped.
+     *
+     * @param velocity Start velocity in pixels per second
+     * @param deceleration Deceleration in pixels per second squared, must be positive
+     * @param t Elapsed time in seconds
+     * @return Distance in pixels with the same sign as <code>velocity</code>
+     */
+    public static float computeDeceleratedDistance(float velocity, float deceleration,
+            float t) {
+        t = Math.min(t, Math.abs(velocity) / deceleration);
+        return velocity * t - Math.signum(velocity) * deceleration * t * t / 2;
+    }
+}
@@ -0,0 +1,137 @@
+package com.sothree.slidinguppanel;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+import java.util.Arrays;
+
+/**
+ * 通过Choreographer记录drag或settle过程中每一帧的间隔
+ * 所有采样都存放在预先分配的数组里，统计过程不会分配内存，避免影响被测量的结果
+ * 需要API 16以上
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class FrameStatsTracker implements Choreographer.FrameCallback {
+
+    /**
+     * 最多保存的帧间隔个数，超出后只计数，不再参与分位数计算
+     */
+    private static final int MAX_SAMPLES = 600;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final long[] mIntervals = new long[MAX_SAMPLES];
+    private final long[] mSorted = new long[MAX_SAMPLES];
+    private final PanelFrameStats mStats = new PanelFrameStats();
+    private final long mFrameIntervalNanos;
+
+    private boolean mRunning;
+    private int mType;
+    private int mPlannedSettleDuration;
+    private int mSampleCount;
+    private int mFrameCount;
+    private int mDroppedFrames;
+    private long mFirstFrameNanos;
+    private long mLastFrameNanos;
+
+    FrameStatsTracker(Context context) {
+        final WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = wm.getDefaultDisplay().getRefreshRate();
+        if (refreshRate < 10.f) {
+            refreshRate = 60.f;
+        }
+        mFrameIntervalNanos = (long) (1000000000L / refreshRate);
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    int getType() {
+        return mType;
+    }
+
+    /**
+     * 开始统计一次drag或settle
+     * @param type
+     * @param plannedSettleDuration
+     */
+    void start(int type, int plannedSettleDuration) {
+        mType = type;
+        mPlannedSettleDuration = plannedSettleDuration;
+        mSampleCount = 0;
+        mFrameCount = 0;
+        mDroppedFrames = 0;
+        mFirstFrameNanos = 0;
+        mLastFrameNanos = 0;
+        if (!mRunning) {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * 结束统计
+     * @return 统计结果，若这段过程没有任何帧间隔，返回null
+     */
+    PanelFrameStats stop() {
+        if (!mRunning) {
+            return null;
+        }
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        if (mSampleCount == 0) {
+            return null;
+        }
+
+        final int n = mSampleCount;
+        System.arraycopy(mIntervals, 0, mSorted, 0, n);
+        Arrays.sort(mSorted, 0, n);
+
+        final PanelFrameStats stats = mStats;
+        stats.mType = mType;
+        stats.mFrameCount = mFrameCount;
+        stats.mDroppedFrames = mDroppedFrames;
+        stats.mFrameIntervalMillis = (float) mFrameIntervalNanos / NANOS_PER_MILLI;
+        stats.mP50Millis = percentile(n, 0.50f);
+        stats.mP90Millis = percentile(n, 0.90f);
+        stats.mP99Millis = percentile(n, 0.99f);
+        stats.mDurationMillis = (float) (mLastFrameNanos - mFirstFrameNanos) / NANOS_PER_MILLI;
+        stats.mPlannedSettleDuration = mType == PanelFrameStats.TYPE_SETTLE
+                ? mPlannedSettleDuration : 0;
+        return stats;
+    }
+
+    private float percentile(int n, float p) {
+        int index = (int) Math.ceil(p * n) - 1;
+        if (index < 0) {
+            index = 0;
+        }
+        return (float) mSorted[index] / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastFrameNanos == 0) {
+            mFirstFrameNanos = frameTimeNanos;
+        } else {
+            final long interval = frameTimeNanos - mLastFrameNanos;
+            if (mSampleCount < MAX_SAMPLES) {
+                mIntervals[mSampleCount++] = interval;
+            }
+            //超过1.5倍帧间隔，按错过的vsync个数计为丢帧
+            if (interval * 2 > mFrameIntervalNanos * 3) {
+                mDroppedFrames += (int) ((interval + mFrameIntervalNanos / 2) / mFrameIntervalNanos) - 1;
+            }
+        }
+        mFrameCount++;
+        mLastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
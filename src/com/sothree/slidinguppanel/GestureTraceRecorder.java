@@ -0,0 +1,130 @@
+package com.sothree.slidinguppanel;
+
+import android.view.MotionEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 把到达SlidingUpPanelLayout的触摸事件，以及由此产生的滑动位置和状态变化，记录成紧凑的二进制trace
+ * 配合{@link GestureTraceReplayer}可在新的layout上确定性地重放
+ *
+ * trace格式：文件头(MAGIC, VERSION)后跟一串记录，每条记录以一个字节的类型开头
+ * RECORD_MOTION: eventTime(long) downTime差值(int) action(int) pointerCount(byte)
+ *                pointerId(byte)*pointerCount historySize(short)
+ *                { eventTime差值(int) {x(float) y(float)}*pointerCount }*historySize
+ *                {x(float) y(float)}*pointerCount
+ * RECORD_SLIDE:  time(long) slideOffset(float) slideState(byte)
+ */
+public class GestureTraceRecorder {
+
+    static final int MAGIC = 0x53555054; // "SUPT"
+    static final int VERSION = 1;
+
+    static final byte RECORD_MOTION = 1;
+    static final byte RECORD_SLIDE = 2;
+
+    /**
+     * 文件头的字节数：MAGIC(int) VERSION(byte)
+     */
+    static final int HEADER_SIZE = 4 + 1;
+
+    /**
+     * RECORD_SLIDE记录在类型字节之后的字节数：time(long) slideOffset(float) slideState(byte)
+     */
+    static final int SLIDE_RECORD_SIZE = 8 + 4 + 1;
+
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(4096);
+    private final DataOutputStream mOut = new DataOutputStream(mBuffer);
+
+    public GestureTraceRecorder() {
+        writeHeader();
+    }
+
+    /**
+     * 记录一个触摸事件，包括批量的历史采样点
+     * @param ev
+     */
+    void recordMotionEvent(MotionEvent ev) {
+        final long eventTime = ev.getEventTime();
+        final int pointerCount = ev.getPointerCount();
+        final int historySize = ev.getHistorySize();
+        try {
+            mOut.writeByte(RECORD_MOTION);
+            mOut.writeLong(eventTime);
+            mOut.writeInt((int) (eventTime - ev.getDownTime()));
+            mOut.writeInt(ev.getAction());
+            mOut.writeByte(pointerCount);
+            for (int p = 0; p < pointerCount; p++) {
+                mOut.writeByte(ev.getPointerId(p));
+            }
+            mOut.writeShort(historySize);
+            for (int h = 0; h < historySize; h++) {
+                mOut.writeInt((int) (eventTime - ev.getHistoricalEventTime(h)));
+                for (int p = 0; p < pointerCount; p++) {
+                    mOut.writeFloat(ev.getHistoricalX(p, h));
+                    mOut.writeFloat(ev.getHistoricalY(p, h));
+                }
+            }
+            for (int p = 0; p < pointerCount; p++) {
+                mOut.writeFloat(ev.getX(p));
+                mOut.writeFloat(ev.getY(p));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 记录一次滑动位置或状态的变化
+     * @param time
+     * @param slideOffset
+     * @param slideState
+     */
+    void recordSlide(long time, float slideOffset, int slideState) {
+        try {
+            mOut.writeByte(RECORD_SLIDE);
+            mOut.writeLong(time);
+            mOut.writeFloat(slideOffset);
+            mOut.writeByte(slideState);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 清空已记录的内容
+     */
+    public void reset() {
+        mBuffer.reset();
+        writeHeader();
+    }
+
+    /**
+     * 获取已记录的trace
+     * @return
+     */
+    public byte[] toByteArray() {
+        return mBuffer.toByteArray();
+    }
+
+    /**
+     * 把已记录的trace写入指定的输出流
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        mBuffer.writeTo(out);
+    }
+
+    private void writeHeader() {
+        try {
+            mOut.writeInt(MAGIC);
+            mOut.writeByte(VERSION);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.sothree.slidinguppanel;
+
+import android.view.MotionEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * 把{@link GestureTraceRecorder}记录的trace重新分发给一个SlidingUpPanelLayout
+ * 重放时layout使用注入的时钟，settle动画按固定的帧间隔推进，所以同一份trace每次重放都会得到相同的帧
+ */
+public class GestureTraceReplayer {
+
+    /**
+     * 默认的帧间隔 单位毫秒
+     */
+    public static final int DEFAULT_FRAME_INTERVAL = 16; // ms
+
+    /**
+     * 事件结束后，最多推进多少帧来等待settle完成
+     */
+    private static final int MAX_SETTLE_FRAMES = 600;
+
+    private final byte[] mTrace;
+
+    private int mFrameInterval = DEFAULT_FRAME_INTERVAL;
+
+    /**
+     * 重放时注入给layout的时钟，时间只由重放过程推进
+     */
+    private static class ReplayClock implements ViewDragHelper.Clock {
+        long mNow;
+
+        @Override
+        public long uptimeMillis() {
+            return mNow;
+        }
+    }
+
+    public GestureTraceReplayer(byte[] trace) {
+        if (trace == null || trace.length < GestureTraceRecorder.HEADER_SIZE) {
+            throw new IllegalArgumentException("trace is empty");
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(trace));
+        try {
+            if (in.readInt() != GestureTraceRecorder.MAGIC) {
+                throw new IllegalArgumentException("not a gesture trace");
+            }
+            final int version = in.readByte();
+            if (version != GestureTraceRecorder.VERSION) {
+                throw new IllegalArgumentException("unsupported gesture trace version " + version);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("malformed gesture trace", e);
+        }
+        mTrace = trace;
+    }
+
+    /**
+     * 设置重放时的帧间隔
+     * @param frameInterval 单位毫秒
+     */
+    public void setFrameInterval(int frameInterval) {
+        if (frameInterval <= 0) {
+            throw new IllegalArgumentException("frame interval must be positive");
+        }
+        mFrameInterval = frameInterval;
+    }
+
+    /**
+     * 把trace中的触摸事件依次分发给layout，事件之间按帧间隔推进settle动画
+     * layout需已完成measure和layout，重放结束后会恢复layout原来的时钟和recorder
+     * @param layout
+     * @return 重放过程中记录下来的trace，两次重放的结果可直接按字节比较
+     */
+    public byte[] replay(SlidingUpPanelLayout layout) {
+        final ReplayClock clock = new ReplayClock();
+        final GestureTraceRecorder recorder = new GestureTraceRecorder();
+        final ViewDragHelper.Clock oldClock = layout.getClock();
+        final GestureTraceRecorder oldRecorder = layout.getGestureTraceRecorder();
+        layout.setClock(clock);
+        layout.setGestureTraceRecorder(recorder);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(mTrace));
+        try {
+            in.skipBytes(GestureTraceRecorder.HEADER_SIZE);
+            long frameTime = -1;
+            while (in.available() > 0) {
+                final byte type = in.readByte();
+                if (type == GestureTraceRecorder.RECORD_SLIDE) {
+                    //重放时会重新产生滑动记录，这里跳过原有的
+                    in.skipBytes(GestureTraceRecorder.SLIDE_RECORD_SIZE);
+                    continue;
+                } else if (type != GestureTraceRecorder.RECORD_MOTION) {
+                    throw new IllegalArgumentException("unknown record type " + type);
+                }
+
+                final MotionEvent ev = readMotionEvent(in);
+                final long eventTime = ev.getEventTime();
+                if (frameTime < 0) {
+                    frameTime = eventTime;
+                }
+                //两个事件之间，按帧间隔推进settle动画
+                while (frameTime + mFrameInterval <= eventTime) {
+                    frameTime += mFrameInterval;
+                    clock.mNow = frameTime;
+                    layout.stepSettle();
+                }
+                clock.mNow = eventTime;
+                layout.dispatchTouchEvent(ev);
+                ev.recycle();
+            }
+
+            //事件结束后，继续推进直到settle完成
+            for (int i = 0; i < MAX_SETTLE_FRAMES; i++) {
+                frameTime += mFrameInterval;
+                clock.mNow = frameTime;
+                if (!layout.stepSettle()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("malformed gesture trace", e);
+        } finally {
+            layout.setGestureTraceRecorder(oldRecorder);
+            layout.setClock(oldClock);
+        }
+        return recorder.toByteArray();
+    }
+
+    /**
+     * 读取一条RECORD_MOTION记录，并还原成MotionEvent，包括历史采样点
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    private static MotionEvent readMotionEvent(DataInputStream in) throws IOException {
+        final long eventTime = in.readLong();
+        final long downTime = eventTime - in.readInt();
+        final int action = in.readInt();
+        final int pointerCount = in.readByte();
+        final int[] pointerIds = new int[pointerCount];
+        final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            pointerIds[p] = in.readByte();
+            coords[p] = new MotionEvent.PointerCoords();
+        }
+
+        MotionEvent ev = null;
+        final int historySize = in.readShort();
+        for (int h = 0; h < historySize; h++) {
+            final long historicalTime = eventTime - in.readInt();
+            readCoords(in, coords);
+            if (ev == null) {
+                ev = obtain(downTime, historicalTime, action, pointerIds, coords);
+            } else {
+                ev.addBatch(historicalTime, coords, 0);
+            }
+        }
+        readCoords(in, coords);
+        if (ev == null) {
+            ev = obtain(downTime, eventTime, action, pointerIds, coords);
+        } else {
+            ev.addBatch(eventTime, coords, 0);
+        }
+        return ev;
+    }
+
+    private static void readCoords(DataInputStream in, MotionEvent.PointerCoords[] coords)
+            throws IOException {
+        for (MotionEvent.PointerCoords c : coords) {
+            c.x = in.readFloat();
+            c.y = in.readFloat();
+            c.pressure = 1.f;
+            c.size = 1.f;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static MotionEvent obtain(long downTime, long eventTime, int action,
+            int[] pointerIds, MotionEvent.PointerCoords[] coords) {
+        return MotionEvent.obtain(downTime, eventTime, action, pointerIds.length, pointerIds,
+                coords, 0, 1.f, 1.f, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,103 @@
+package com.sothree.slidinguppanel;
+
+/**
+ * 一次drag或settle过程的帧统计结果
+ * 此对象会被复用，只在{@link SlidingUpPanelLayout.PanelFrameStatsListener}回调期间有效
+ */
+public class PanelFrameStats {
+
+    /**
+     * 统计的是手指拖动panel的过程
+     */
+    public static final int TYPE_DRAG = 0;
+
+    /**
+     * 统计的是panel松手后自动滑动到位的过程
+     */
+    public static final int TYPE_SETTLE = 1;
+
+    int mType;
+    int mFrameCount;
+    int mDroppedFrames;
+    float mFrameIntervalMillis;
+    float mP50Millis;
+    float mP90Millis;
+    float mP99Millis;
+    float mDurationMillis;
+    int mPlannedSettleDuration;
+
+    /**
+     * @return {@link #TYPE_DRAG}或{@link #TYPE_SETTLE}
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return 此过程中绘制的帧数
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return 按屏幕刷新率估算的丢帧数
+     */
+    public int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return 屏幕刷新率对应的帧间隔 单位毫秒
+     */
+    public float getFrameIntervalMillis() {
+        return mFrameIntervalMillis;
+    }
+
+    /**
+     * @return 帧间隔的p50 单位毫秒
+     */
+    public float getFrameTimeP50Millis() {
+        return mP50Millis;
+    }
+
+    /**
+     * @return 帧间隔的p90 单位毫秒
+     */
+    public float getFrameTimeP90Millis() {
+        return mP90Millis;
+    }
+
+    /**
+     * @return 帧间隔的p99 单位毫秒
+     */
+    public float getFrameTimeP99Millis() {
+        return mP99Millis;
+    }
+
+    /**
+     * @return 第一帧到最后一帧的实际耗时 单位毫秒
+     */
+    public float getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    /**
+     * @return settle开始(或中途改变目标)时计划的时长 单位毫秒，弹簧settle为估算的静止时间，TYPE_DRAG时为0
+     */
+    public int getPlannedSettleDuration() {
+        return mPlannedSettleDuration;
+    }
+
+    @Override
+    public String toString() {
+        return "PanelFrameStats{type=" + (mType == TYPE_SETTLE ? "settle" : "drag")
+                + ", frames=" + mFrameCount
+                + ", dropped=" + mDroppedFrames
+                + ", p50=" + mP50Millis
+                + ", p90=" + mP90Millis
+                + ", p99=" + mP99Millis
+                + ", duration=" + mDurationMillis
+                + ", planned=" + mPlannedSettleDuration + "}";
+    }
+}
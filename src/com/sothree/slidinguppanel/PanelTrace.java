@@ -0,0 +1,131 @@
+package com.sothree.slidinguppanel;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+
+/**
+ * 在panel的关键路径上插入systrace/Perfetto的trace section和counter
+ * 默认关闭，通过{@link #setEnabled(boolean)}打开；section需要API 18以上，counter需要API 29以上
+ */
+public final class PanelTrace {
+
+    static final String SECTION_INTERCEPT = "SUP.onInterceptTouchEvent";
+    static final String SECTION_TOUCH = "SUP.onTouchEvent";
+    static final String SECTION_DRAG_INTERCEPT = "SUP.VDH.shouldInterceptTouchEvent";
+    static final String SECTION_DRAG_PROCESS = "SUP.VDH.processTouchEvent";
+    static final String SECTION_MEASURE = "SUP.onMeasure";
+    static final String SECTION_LAYOUT = "SUP.onLayout";
+    static final String SECTION_DRAW_CHILD = "SUP.drawChild";
+    static final String SECTION_DRAW_SCRIM = "SUP.drawScrim";
+    static final String SECTION_DRAW_SHADOW = "SUP.drawShadow";
+    static final String SECTION_COMPUTE_SCROLL = "SUP.computeScroll";
+    static final String SECTION_DISPATCH_SLIDE = "SUP.dispatchOnPanelSlide";
+
+    static final String COUNTER_SLIDE_OFFSET = "SUP.slideOffset";
+    static final String COUNTER_DRAG_STATE = "SUP.dragState";
+
+    private static final boolean SECTIONS_SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private static final int API_Q = 29;
+
+    private static boolean sEnabled;
+
+    /**
+     * Trace.setCounter在API 29才公开，编译版本不包含此函数，需要反射调用
+     */
+    private static Method sSetCounterMethod;
+    private static boolean sSetCounterResolved;
+
+    /**
+     * 反射调用时复用的参数数组，只在主线程使用
+     */
+    private static final Object[] sSetCounterArgs = new Object[2];
+
+    /**
+     * 缓存的counter值，覆盖slideOffset * 1000的范围，拖动时每帧设置counter不再装箱
+     */
+    private static final int CACHED_COUNTER_VALUES = 1001;
+    private static Long[] sCounterValues;
+
+    private PanelTrace() {
+    }
+
+    /**
+     * 打开或关闭panel的trace，默认关闭
+     * @param enabled
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return 是否已打开panel的trace
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * 开始一个trace section
+     * @param name
+     * @return 是否真的开始了section，需要原样传给{@link #endSection(boolean)}，
+     *         中途切换trace开关时section也能配对
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static boolean beginSection(String name) {
+        if (sEnabled && SECTIONS_SUPPORTED) {
+            Trace.beginSection(name);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 结束{@link #beginSection(String)}开始的section
+     * @param begun beginSection的返回值
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static void endSection(boolean begun) {
+        if (begun) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * 设置一个counter的值，用于在trace中和RenderThread、input对齐panel的运动
+     * @param name
+     * @param value
+     */
+    static void setCounter(String name, long value) {
+        if (!sEnabled || Build.VERSION.SDK_INT < API_Q) {
+            return;
+        }
+        if (!sSetCounterResolved) {
+            sSetCounterResolved = true;
+            try {
+                sSetCounterMethod = Trace.class.getMethod("setCounter", String.class, long.class);
+                sCounterValues = new Long[CACHED_COUNTER_VALUES];
+                for (int i = 0; i < CACHED_COUNTER_VALUES; i++) {
+                    sCounterValues[i] = Long.valueOf(i);
+                }
+            } catch (NoSuchMethodException e) {
+                sSetCounterMethod = null;
+            }
+        }
+        if (sSetCounterMethod != null) {
+            final Object[] args = sSetCounterArgs;
+            args[0] = name;
+            args[1] = value >= 0 && value < CACHED_COUNTER_VALUES
+                    ? sCounterValues[(int) value] : Long.valueOf(value);
+            try {
+                sSetCounterMethod.invoke(null, args);
+            } catch (Exception e) {
+                sSetCounterMethod = null;
+            }
+        }
+    }
+}
@@ -1,15 +1,24 @@
 package com.sothree.slidinguppanel;
 
+import android.annotation.TargetApi;
+import android.app.Activity;
 import android.content.Context;
+import android.content.ContextWrapper;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
+import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.v4.view.MotionEventCompat;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
@@ -17,11 +26,19 @@ import android.util.Log;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.SoundEffectConstants;
+import android.view.SurfaceView;
+import android.view.TextureView;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
+import android.view.Window;
 import android.view.accessibility.AccessibilityEvent;
 
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
 import com.nineoldandroids.view.animation.AnimatorProxy;
 import com.sothree.slidinguppanel.demo.R;
 
@@ -39,6 +56,80 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     private static final int DEFAULT_SHADOW_HEIGHT = 4; // dp;
 
+    /**
+     * 阴影渐变起始端的颜色，从这个颜色渐变到透明，与res/drawable-hdpi中above_shadow、below_shadow的颜色相同
+     */
+    private static final int SHADOW_COLOR = 0x20000000;
+
+    /**
+     * 由本layout在panel边缘画渐变阴影
+     */
+    public static final int SHADOW_MODE_DRAWN = 0;
+
+    /**
+     * API 21以上使用slideable view的elevation和outline，阴影由RenderThread绘制并随panel移动，
+     * 更低的版本回退到SHADOW_MODE_DRAWN
+     */
+    public static final int SHADOW_MODE_ELEVATION = 1;
+
+    private static final int API_LOLLIPOP = 21;
+
+    private static final int API_KITKAT = 19;
+
+    /**
+     * View.IMPORTANT_FOR_ACCESSIBILITY_NO_HIDE_DESCENDANTS，API 19加入
+     */
+    private static final int IMPORTANT_FOR_ACCESSIBILITY_NO_HIDE_DESCENDANTS = 0x00000004;
+
+    /**
+     * main view按普通view合成：蒙层画在本layout的canvas上，main view被panel遮住的部分会被clip，视差通过translationY完成
+     */
+    public static final int COMPOSITING_MODE_DEFAULT = 0;
+
+    /**
+     * 适用于main view由SurfaceView、GLSurfaceView等surface绘制的情况：
+     * 蒙层改为一个单独的、使用硬件alpha的view，不再clip main view，视差不再移动main view，
+     * 只通过{@link PanelParallaxListener}把偏移值交给main view的renderer。panel需要是不透明的
+     */
+    public static final int COMPOSITING_MODE_SURFACE = 1;
+
+    /**
+     * main view中包含SurfaceView或TextureView时使用COMPOSITING_MODE_SURFACE，否则使用COMPOSITING_MODE_DEFAULT
+     */
+    public static final int COMPOSITING_MODE_AUTO = 2;
+
+    /**
+     * main view被panel完全覆盖时设置为INVISIBLE，panel开始移动时恢复VISIBLE
+     */
+    public static final int OCCLUSION_MODE_VISIBILITY = 0;
+
+    /**
+     * main view被panel完全覆盖时保持VISIBLE，只在drawChild中跳过它的绘制，
+     * 不产生visibility事件，display list也保持有效，panel开始移动的第一帧没有额外开销。
+     * 被覆盖期间main view对无障碍服务隐藏，它的子view也不能获得焦点
+     */
+    public static final int OCCLUSION_MODE_SKIP_DRAW = 1;
+
+    /**
+     * main view没有被panel覆盖
+     */
+    public static final int MAIN_CONTENT_VISIBLE = 0;
+
+    /**
+     * main view被panel覆盖了一部分
+     */
+    public static final int MAIN_CONTENT_PARTIALLY_COVERED = 1;
+
+    /**
+     * main view被panel完全覆盖
+     */
+    public static final int MAIN_CONTENT_OBSCURED = 2;
+
+    /**
+     * 默认main view覆盖状态切换的滞后距离
+     */
+    private static final int DEFAULT_OCCLUSION_HYSTERESIS = 8; // dp
+
     /**
      * 默认蒙层颜色
      */
@@ -49,6 +140,26 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     private static final int DEFAULT_MIN_FLING_VELOCITY = 400; // dips per second
     
+    /**
+     * 松手后停在滑动方向上的下一个锚点，没有速度时停在最近的锚点
+     */
+    public static final int RELEASE_MODE_NEXT_SNAP = 0;
+
+    /**
+     * 松手后按速度和减速度推算panel自然停下的位置，停在离该位置最近的锚点
+     */
+    public static final int RELEASE_MODE_PROJECTED = 1;
+
+    /**
+     * 默认方式，与设置多个锚点之前一致：有速度时直接滑到滑动方向上的尽头(展开或收起)，没有速度时停在最近的锚点
+     */
+    public static final int RELEASE_MODE_RANGE_END = 2;
+
+    /**
+     * 默认RELEASE_MODE_PROJECTED使用的减速度
+     */
+    private static final int DEFAULT_RELEASE_DECELERATION = 4000; // dips per second squared
+
     /**
      * 默认是否在mMainview上加一层蒙层
      */
@@ -82,9 +193,47 @@ public class SlidingUpPanelLayout extends ViewGroup {
     private final Paint mCoveredFadePaint = new Paint();
 
     /**
-     * 画阴影的drawable
+     * mCoveredFadePaint当前的颜色，颜色不变时不再调用setColor
+     */
+    private int mCoveredFadePaintColor;
+
+    /**
+     * 画阴影的paint，所有实例共用同一个单位高度的渐变shader
+     */
+    private static Paint sShadowPaint;
+
+    /**
+     * View的elevation和outline provider相关函数在API 21才公开，编译版本不包含这些函数，需要反射调用
+     */
+    private static Method sSetElevationMethod;
+    private static Method sGetElevationMethod;
+    private static Method sSetOutlineProviderMethod;
+    private static Method sGetOutlineProviderMethod;
+    private static Object sOutlineProviderBounds;
+    private static boolean sElevationResolved;
+    private static boolean sElevationFailureLogged;
+
+    /**
+     * 阴影的绘制方式
+     */
+    private int mShadowMode = SHADOW_MODE_DRAWN;
+
+    /**
+     * 当前被设置了elevation的view
+     */
+    private View mElevatedView;
+
+    /**
+     * mElevatedView原来的elevation和outline provider，不再使用elevation阴影时恢复
+     */
+    private float mSavedElevation;
+    private Object mSavedOutlineProvider;
+
+    /**
+     * 上次画阴影的范围，以及把单位渐变映射到该范围的矩阵，范围不变时不再更新
      */
-    private final Drawable mShadowDrawable;
+    private final Rect mShadowBounds = new Rect();
+    private final Matrix mShadowMatrix = new Matrix();
 
     /**
      * slideable view折叠时的高度 单位像素
@@ -126,6 +275,11 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     private int mDragViewResId = -1;
 
+    /**
+     * 若为true，在mDragView上按下时立即开始拖动panel，不需要先超过touch slop
+     */
+    private boolean mDragViewImmediateCapture;
+
     /**
      * 可被滑动的view
      */
@@ -158,9 +312,100 @@ public class SlidingUpPanelLayout extends ViewGroup {
     private int mSlideRange;
 
     /**
-     * 若为true 表示不能够继续拖动
+     * 若为true，panel移动期间把slideable view和有视差偏移的main view放到硬件层上
+     */
+    private boolean mHardwareLayersEnabled;
+
+    /**
+     * 若为true，按下时就开启硬件层，并在主线程空闲时提前绘制，避免第一帧移动时才创建
+     */
+    private boolean mHardwareLayerPrewarmEnabled;
+
+    /**
+     * 当前是否由本layout开启了硬件层，以及开启了哪些view的硬件层
+     */
+    private boolean mHardwareLayersActive;
+    private boolean mSlideableViewLayered;
+    private boolean mMainViewLayered;
+
+    /**
+     * 主线程空闲时提前绘制硬件层
+     */
+    private final MessageQueue.IdleHandler mBuildLayersIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            buildHardwareLayers();
+            return false;
+        }
+    };
+
+    /**
+     * main view和panel中是否包含SurfaceView或TextureView
+     * 检测需要遍历整个子树，结果缓存起来，本layout的子view增删或重新attach时重新检测
+     */
+    private boolean mSurfaceInfoValid;
+    private boolean mMainViewHasSurface;
+    private boolean mSlideableViewHasSurface;
+
+    /**
+     * 外部设置的子view增删监听，由mHierarchyChangeListener转发
+     */
+    private OnHierarchyChangeListener mOnHierarchyChangeListener;
+
+    private final OnHierarchyChangeListener mHierarchyChangeListener = new OnHierarchyChangeListener() {
+        @Override
+        public void onChildViewAdded(View parent, View child) {
+            if (child == mScrimView) {
+                return;
+            }
+            mSurfaceInfoValid = false;
+            //新加入的child排在蒙层view之后时，把蒙层view移回最后，保持main view和panel的下标
+            if (mScrimView != null && getChildAt(getChildCount() - 1) != mScrimView) {
+                detachViewFromParent(mScrimView);
+                attachViewToParent(mScrimView, -1, mScrimView.getLayoutParams());
+            }
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewAdded(parent, child);
+            }
+        }
+
+        @Override
+        public void onChildViewRemoved(View parent, View child) {
+            if (child == mScrimView) {
+                mScrimView = null;
+                return;
+            }
+            mSurfaceInfoValid = false;
+            //被移除的main view需要恢复无障碍和焦点的设置
+            if (child == mInaccessibleMainView) {
+                setMainViewObscured(false);
+            }
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewRemoved(parent, child);
+            }
+        }
+    };
+
+    /**
+     * 当前手势的归属还未确定，需要继续判断
      */
-    private boolean mIsUnableToDrag;
+    private static final int ARBITRATION_UNDECIDED = 0;
+
+    /**
+     * 当前手势是drag view内部的横向滑动，交给子view处理
+     */
+    private static final int ARBITRATION_CHILD_HORIZONTAL = 1;
+
+    /**
+     * 当前手势不可能拖动panel，之后的事件直接放行
+     */
+    private static final int ARBITRATION_REJECTED = 2;
+
+    /**
+     * 当前手势是否已判定与panel无关，每个手势在ACTION_DOWN时重置，确定后不再改变
+     * panel拦截手势后，之后的事件由系统直接交给onTouchEvent，不会再进入拦截判断，所以不需要记录panel胜出的状态
+     */
+    private int mArbitration = ARBITRATION_UNDECIDED;
 
     /**
      * 一个flag 来标示是否激活滑动功能
@@ -183,20 +428,128 @@ public class SlidingUpPanelLayout extends ViewGroup {
     private float mInitialMotionY;
     
     /**
-     * 锚点 有效值范围[0,1]
+     * 所有停靠点的slideOffset，按升序排列，首尾固定为0(展开)和1(收起)，中间为锚点
+     */
+    private float[] mSnapOffsets = DEFAULT_SNAP_OFFSETS;
+
+    /**
+     * 当前停留的锚点在mSnapOffsets中的下标，不在锚点上时为-1
+     */
+    private int mSnapIndex = -1;
+
+    private static final float[] DEFAULT_SNAP_OFFSETS = new float[] { 0.f, 1.f };
+
+    /**
+     * 松手后选择停靠点的方式
      */
-    private float mAnchorPoint = 0.f;
+    private int mReleaseMode = RELEASE_MODE_RANGE_END;
+
+    /**
+     * RELEASE_MODE_PROJECTED使用的减速度 单位像素每二次方秒
+     */
+    private float mReleaseDeceleration;
 
     /**
      * Panel滑动动作监听
      */
     private PanelSlideListener mPanelSlideListener;
 
+    /**
+     * Panel停在锚点时的监听
+     */
+    private PanelSnapListener mPanelSnapListener;
+
+    /**
+     * COMPOSITING_MODE_SURFACE下视差偏移的监听
+     */
+    private PanelParallaxListener mPanelParallaxListener;
+
+    /**
+     * main view覆盖状态的监听
+     */
+    private PanelOcclusionListener mPanelOcclusionListener;
+
+    /**
+     * 上次分发的main view覆盖状态和可见高度，-1表示还没有分发过
+     */
+    private int mMainContentOcclusion = -1;
+    private int mMainContentVisibleHeight;
+
+    /**
+     * main view覆盖状态切换的滞后距离，单位像素
+     */
+    private int mOcclusionHysteresis;
+
+    /**
+     * main view的合成方式
+     */
+    private int mCompositingMode = COMPOSITING_MODE_DEFAULT;
+
+    /**
+     * 当前是否按COMPOSITING_MODE_SURFACE合成，COMPOSITING_MODE_AUTO在measure时确定
+     */
+    private boolean mSurfaceCompositing;
+
+    /**
+     * COMPOSITING_MODE_SURFACE下的蒙层view，在onFinishInflate时创建，总是最后一个child，
+     * 绘制顺序在main view和panel之间，不计入main view和panel的child数目
+     * 代码创建的layout中为null，此时蒙层在drawChild中画出
+     */
+    private ScrimView mScrimView;
+
+    /**
+     * main view被panel遮住时的处理方式
+     */
+    private int mOcclusionMode = OCCLUSION_MODE_VISIBILITY;
+
+    /**
+     * main view当前是否被panel完全覆盖
+     */
+    private boolean mMainViewObscured;
+
+    /**
+     * OCCLUSION_MODE_SKIP_DRAW下被隐藏无障碍和焦点的view，及其原来的设置，恢复时使用
+     */
+    private View mInaccessibleMainView;
+    private int mSavedImportantForAccessibility;
+    private int mSavedDescendantFocusability;
+
+    /**
+     * panel是否以不透明的背景覆盖了本layout的全部区域，此时main view已被隐藏
+     */
+    private boolean mCoveredByPanel;
+
+    /**
+     * panel覆盖全部区域时是否清除window的背景
+     */
+    private boolean mWindowBackgroundClearingEnabled;
+
+    /**
+     * 被清除的window背景及其所在的window，恢复时使用
+     */
+    private Drawable mClearedWindowBackground;
+    private Window mClearedWindowBackgroundWindow;
+
     /**
      * 辅助类 用于处理滑动的细节
      */
     private final ViewDragHelper mDragHelper;
 
+    /**
+     * 帧统计监听
+     */
+    private PanelFrameStatsListener mPanelFrameStatsListener;
+
+    /**
+     * 用Choreographer统计drag和settle过程中的帧间隔，API 16以下为null
+     */
+    private FrameStatsTracker mFrameStatsTracker;
+
+    /**
+     * 若不为null，记录到达本layout的触摸事件和滑动变化
+     */
+    private GestureTraceRecorder mGestureTraceRecorder;
+
     /**
      * 标示是否需要重新初始化
      */
@@ -207,6 +560,70 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     private final Rect mTmpRect = new Rect();
 
+    /**
+     * panel移动时需要重绘的区域
+     */
+    private final Rect mDirtyRect = new Rect();
+
+    /**
+     * 缓存的drag view区域，坐标相对于本layout，在onLayout时计算，触摸判断时不再分配内存
+     */
+    private final Rect mDragViewRect = new Rect();
+
+    /**
+     * 计算mDragViewRect时slideable view的top值，panel滑动后用来修正mDragViewRect
+     */
+    private int mDragViewRectSlideTop;
+
+    /**
+     * 若为true，表示drag view位于slideable view内部，会跟随panel一起滑动
+     */
+    private boolean mDragViewInSlideable;
+
+    /**
+     * 若为true，表示mDragViewRect有效
+     * drag view的layout、window中的滚动和layout，以及视差偏移都会让它失效，触摸判断时不再查询window中的位置
+     */
+    private boolean mDragViewRectValid;
+
+    /**
+     * 缓存的getSlidingTop()值，在onLayout时计算
+     */
+    private int mSlidingTop;
+
+    /**
+     * drag view自身重新layout时，让缓存失效
+     */
+    private final OnLayoutChangeListener mDragViewLayoutListener = new OnLayoutChangeListener() {
+        @Override
+        public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                int oldLeft, int oldTop, int oldRight, int oldBottom) {
+            mDragViewRectValid = false;
+        }
+    };
+
+    /**
+     * window中有view滚动时，drag view的某个祖先可能发生了滚动，让缓存失效
+     */
+    private final ViewTreeObserver.OnScrollChangedListener mDragViewScrollListener =
+            new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+            mDragViewRectValid = false;
+        }
+    };
+
+    /**
+     * window中有layout发生时，drag view的某个祖先可能被移动，让缓存失效
+     */
+    private final ViewTreeObserver.OnGlobalLayoutListener mDragViewGlobalLayoutListener =
+            new ViewTreeObserver.OnGlobalLayoutListener() {
+        @Override
+        public void onGlobalLayout() {
+            mDragViewRectValid = false;
+        }
+    };
+
     /**
      * Panel滑动动作监听
      */
@@ -238,6 +655,61 @@ public class SlidingUpPanelLayout extends ViewGroup {
         public void onPanelAnchored(View panel);
     }
 
+    /**
+     * Panel停在某个锚点时回调，可区分多个锚点
+     */
+    public interface PanelSnapListener {
+
+        /**
+         * Panel停在锚点时回调
+         * @param panel
+         * @param snapIndex 锚点在{@link #getSnapPoints()}中的下标
+         * @param snapOffset 锚点的slideOffset
+         */
+        public void onPanelSnapped(View panel, int snapIndex, float snapOffset);
+    }
+
+    /**
+     * COMPOSITING_MODE_SURFACE下main view不再被移动，视差偏移通过此接口交给main view自己的renderer
+     */
+    public interface PanelParallaxListener {
+
+        /**
+         * 视差偏移变化时回调
+         * @param mainView
+         * @param offset 与{@link #getCurrentParalaxOffset()}相同，单位像素
+         */
+        public void onPanelParallax(View mainView, int offset);
+    }
+
+    /**
+     * main view被panel覆盖的程度发生变化时回调，可用来暂停或降低被覆盖内容的工作，例如视频、地图瓦片和动画
+     * 只有背景不透明的panel才算作覆盖，半透明的panel下main view始终是MAIN_CONTENT_VISIBLE
+     */
+    public interface PanelOcclusionListener {
+
+        /**
+         * 覆盖状态变化时回调；MAIN_CONTENT_PARTIALLY_COVERED下可见高度的变化超过滞后距离时也会回调
+         * @param mainView
+         * @param occlusion MAIN_CONTENT_VISIBLE、MAIN_CONTENT_PARTIALLY_COVERED或MAIN_CONTENT_OBSCURED
+         * @param visibleHeight main view在本layout内未被panel覆盖的高度，单位像素
+         */
+        public void onMainContentOcclusionChanged(View mainView, int occlusion, int visibleHeight);
+    }
+
+    /**
+     * Panel每次drag或settle结束时，回调此过程的帧统计
+     */
+    public interface PanelFrameStatsListener {
+
+        /**
+         * 一次drag或settle结束时回调，stats对象会被复用，只在回调期间有效
+         * @param panel
+         * @param stats
+         */
+        public void onPanelFrameStats(View panel, PanelFrameStats stats);
+    }
+
     /**
      * 如果你不想实现PanelSlideListener的全部函数，可使用此
      */
@@ -269,10 +741,10 @@ public class SlidingUpPanelLayout extends ViewGroup {
     //构造函数
     public SlidingUpPanelLayout(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        super.setOnHierarchyChangeListener(mHierarchyChangeListener);
         
         //兼容一些android提供的可视化工具做的处理
         if(isInEditMode()) {
-            mShadowDrawable = null;
             mScrollTouchSlop = 0;
             mDragHelper = null;
             return;
@@ -306,6 +778,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
                 mDragViewResId = ta.getResourceId(R.styleable.SlidingUpPanelLayout_dragView, -1);
 
                 mOverlayContent = ta.getBoolean(R.styleable.SlidingUpPanelLayout_overlay,DEFAULT_OVERLAY_FLAG);
+
+                mDragViewImmediateCapture = ta.getBoolean(R.styleable.SlidingUpPanelLayout_dragViewImmediateCapture, false);
             }
 
             ta.recycle();
@@ -323,15 +797,10 @@ public class SlidingUpPanelLayout extends ViewGroup {
             mParalaxOffset = (int) (DEFAULT_PARALAX_OFFSET * density);
         }
         // If the shadow height is zero, don't show the shadow
-        if (mShadowHeight > 0) {
-            if (mIsSlidingUp) {
-                mShadowDrawable = getResources().getDrawable(R.drawable.above_shadow);
-            } else {
-                mShadowDrawable = getResources().getDrawable(R.drawable.below_shadow);
-            }
-
-        } else {
-            mShadowDrawable = null;
+        if (mShadowHeight > 0 && sShadowPaint == null) {
+            sShadowPaint = new Paint();
+            sShadowPaint.setShader(new LinearGradient(0, 0, 0, 1, SHADOW_COLOR, 0,
+                    Shader.TileMode.CLAMP));
         }
 
         setWillNotDraw(false);
@@ -339,6 +808,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
         //用来处理滑动的工具类
         mDragHelper = ViewDragHelper.create(this, 0.5f, new DragHelperCallback());
         mDragHelper.setMinVelocity(mMinFlingVelocity * density);
+        mReleaseDeceleration = DEFAULT_RELEASE_DECELERATION * density;
+        mOcclusionHysteresis = (int) (DEFAULT_OCCLUSION_HYSTERESIS * density + 0.5f);
 
         mCanSlide = true;
         mIsSlidingEnabled = true;
@@ -354,16 +825,34 @@ public class SlidingUpPanelLayout extends ViewGroup {
     protected void onFinishInflate() {
         super.onFinishInflate();
         if (mDragViewResId != -1) {
-            mDragView = findViewById(mDragViewResId);
+            setDragView(findViewById(mDragViewResId), mDragViewImmediateCapture);
+        }
+        //蒙层view只在inflate完成时加入，之后合成方式的切换只改变它的可见状态
+        if (getChildCount() == 2 && !isInEditMode()) {
+            mScrimView = new ScrimView(getContext());
+            mScrimView.setVisibility(INVISIBLE);
+            ViewCompat.setImportantForAccessibility(mScrimView,
+                    ViewCompat.IMPORTANT_FOR_ACCESSIBILITY_NO);
+            addView(mScrimView);
+            setChildrenDrawingOrderEnabled(true);
         }
     }
 
     /**
-     * 设置蒙层的颜色
+     * main view和panel的数目，不包括蒙层view
+     * @return
+     */
+    private int getContentChildCount() {
+        return getChildCount() - (mScrimView != null ? 1 : 0);
+    }
+
+    /**
+     * 设置蒙层的颜色
      * @param color
      */
     public void setCoveredFadeColor(int color) {
         mCoveredFadeColor = color;
+        updateScrimView();
         invalidate();
     }
 
@@ -415,37 +904,825 @@ public class SlidingUpPanelLayout extends ViewGroup {
         mPanelSlideListener = listener;
     }
 
+    /**
+     * 设置帧统计监听，每次drag或settle结束时回调，为null表示不统计
+     * 需要API 16以上，低版本不会回调
+     * @param listener
+     */
+    public void setPanelFrameStatsListener(PanelFrameStatsListener listener) {
+        mPanelFrameStatsListener = listener;
+        if (listener == null) {
+            if (mFrameStatsTracker != null) {
+                mFrameStatsTracker.stop();
+            }
+        } else if (mFrameStatsTracker == null
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mFrameStatsTracker = new FrameStatsTracker(getContext());
+        }
+    }
+
+    /**
+     * ViewDragHelper状态变化时，结束上一段统计并分发结果，再根据新状态开始下一段统计
+     * @param dragState
+     */
+    private void updateFrameStats(int dragState) {
+        final PanelFrameStats stats = mFrameStatsTracker.stop();
+        if (stats != null) {
+            mPanelFrameStatsListener.onPanelFrameStats(mSlideableView, stats);
+        }
+        if (dragState == ViewDragHelper.STATE_DRAGGING) {
+            mFrameStatsTracker.start(PanelFrameStats.TYPE_DRAG, 0);
+        } else if (dragState == ViewDragHelper.STATE_SETTLING) {
+            mFrameStatsTracker.start(PanelFrameStats.TYPE_SETTLE, mDragHelper.getSettleDuration());
+        }
+    }
+
+    /**
+     * 设置panel移动期间是否自动使用硬件层
+     * 打开后，离开STATE_IDLE时把slideable view和有视差偏移的main view放到硬件层上，回到STATE_IDLE时恢复，
+     * 移动过程中只需合成而不用重绘；已有layer或包含SurfaceView、TextureView的view会跳过
+     * @param enabled
+     */
+    public void setHardwareLayersEnabled(boolean enabled) {
+        mHardwareLayersEnabled = enabled;
+        if (!enabled) {
+            disableHardwareLayers();
+        }
+    }
+
+    /**
+     * 设置是否提前准备硬件层
+     * 打开后，在panel上按下时就开启硬件层，并在主线程空闲时绘制，第一帧移动时不再需要创建layer。
+     * 需同时调用setHardwareLayersEnabled(true)
+     * @param enabled
+     */
+    public void setHardwareLayerPrewarmEnabled(boolean enabled) {
+        mHardwareLayerPrewarmEnabled = enabled;
+    }
+
+    /**
+     * 开启硬件层
+     * @param prewarm 若为true，在主线程空闲时提前绘制硬件层
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void enableHardwareLayers(boolean prewarm) {
+        if (!mHardwareLayersEnabled || mHardwareLayersActive
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || !isHardwareAccelerated()) {
+            return;
+        }
+        mHardwareLayersActive = true;
+        updateSurfaceInfo();
+        mSlideableViewLayered = !mSlideableViewHasSurface && enableHardwareLayer(mSlideableView);
+        //main view只有在视差偏移时才会移动
+        mMainViewLayered = mParalaxOffset > 0 && !mSurfaceCompositing && !mMainViewHasSurface
+                && enableHardwareLayer(mMainView);
+        if (prewarm && (mSlideableViewLayered || mMainViewLayered)) {
+            Looper.myQueue().addIdleHandler(mBuildLayersIdleHandler);
+        }
+    }
+
+    /**
+     * 恢复开启硬件层之前的layer类型
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void disableHardwareLayers() {
+        if (!mHardwareLayersActive) {
+            return;
+        }
+        mHardwareLayersActive = false;
+        Looper.myQueue().removeIdleHandler(mBuildLayersIdleHandler);
+        if (mSlideableViewLayered) {
+            mSlideableView.setLayerType(View.LAYER_TYPE_NONE, null);
+            mSlideableViewLayered = false;
+        }
+        if (mMainViewLayered) {
+            mMainView.setLayerType(View.LAYER_TYPE_NONE, null);
+            mMainViewLayered = false;
+        }
+    }
+
+    /**
+     * 手势结束时若panel没有开始移动，释放为prewarm开启的硬件层
+     */
+    private void disableHardwareLayersIfIdle() {
+        if (mHardwareLayersActive && mDragHelper.getViewDragState() == ViewDragHelper.STATE_IDLE) {
+            disableHardwareLayers();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private boolean enableHardwareLayer(View view) {
+        if (view == null || view.getLayerType() != View.LAYER_TYPE_NONE) {
+            return false;
+        }
+        view.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void buildHardwareLayers() {
+        if (!mHardwareLayersActive || getWindowToken() == null) {
+            return;
+        }
+        if (mSlideableViewLayered) {
+            mSlideableView.buildLayer();
+        }
+        if (mMainViewLayered) {
+            mMainView.buildLayer();
+        }
+    }
+
+    /**
+     * 需要时重新检测main view和panel中是否包含SurfaceView或TextureView
+     * main view或panel内部更深层的增删不会通知到本layout，动态加入的surface在下一次attach时才会被检测到
+     */
+    private void updateSurfaceInfo() {
+        if (mSurfaceInfoValid) {
+            return;
+        }
+        //按下标取child，不受mMainView和mSlideableView在measure时随可见性变化的影响
+        final int childCount = getContentChildCount();
+        mMainViewHasSurface = childCount > 0 && containsSurface(getChildAt(0));
+        mSlideableViewHasSurface = childCount > 1 && containsSurface(getChildAt(1));
+        mSurfaceInfoValid = true;
+    }
+
+    /**
+     * 判断view中是否包含SurfaceView或TextureView，这两种view放在硬件层上会出错或没有收益
+     * @param view
+     * @return
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static boolean containsSurface(View view) {
+        if (view instanceof SurfaceView) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+                && view instanceof TextureView) {
+            return true;
+        }
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0, count = group.getChildCount(); i < count; i++) {
+                if (containsSurface(group.getChildAt(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * 设置可用来拖动的view，若为NULL，表示允许整个drag view响应拖动
      * @param dragView
      */
     public void setDragView(View dragView) {
+        setDragView(dragView, false);
+    }
+
+    /**
+     * 设置可用来拖动的view，若为NULL，表示允许整个drag view响应拖动
+     * @param dragView
+     * @param immediateCapture 若为true，在dragView上按下时立即开始拖动panel，从第一个move事件就跟手，
+     *                         不需要先超过touch slop；点击仍会在抬起时识别。
+     *                         此设置优先于setEnableDragViewTouchEvents(true)，dragView内部不再收到触摸事件
+     */
+    public void setDragView(View dragView, boolean immediateCapture) {
+        mDragViewImmediateCapture = immediateCapture;
+        if (mDragView != null) {
+            mDragView.removeOnLayoutChangeListener(mDragViewLayoutListener);
+        }
         mDragView = dragView;
+        if (mDragView != null) {
+            mDragView.addOnLayoutChangeListener(mDragViewLayoutListener);
+        }
+        mDragViewRectValid = false;
     }
 
     /**
-     * 设置锚点
-     * @param anchorPoint 有效值范围[0,1]
+     * 设置锚点，等同于只设置一个锚点的{@link #setSnapPoints(float...)}
+     * @param anchorPoint 有效值范围(0,1)
      */
     public void setAnchorPoint(float anchorPoint) {
         if (anchorPoint > 0 && anchorPoint < 1)
-            mAnchorPoint = anchorPoint;
+            setSnapPoints(anchorPoint);
+    }
+
+    /**
+     * 设置多个锚点，panel松手后会停在展开、收起或其中一个锚点上
+     * 范围(0,1)以外的值会被忽略，重复的值只保留一个；不传参数表示取消所有锚点
+     * @param snapPoints 锚点的slideOffset，0为展开，1为收起
+     */
+    public void setSnapPoints(float... snapPoints) {
+        final float[] sorted = new float[snapPoints.length + 2];
+        int count = 0;
+        sorted[count++] = 0.f;
+        for (float point : snapPoints) {
+            if (point > 0 && point < 1) {
+                sorted[count++] = point;
+            }
+        }
+        Arrays.sort(sorted, 1, count);
+        //去掉重复的锚点
+        int unique = 1;
+        for (int i = 1; i < count; i++) {
+            if (sorted[i] != sorted[unique - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        sorted[unique++] = 1.f;
+        mSnapOffsets = unique == 2 ? DEFAULT_SNAP_OFFSETS : Arrays.copyOf(sorted, unique);
+        mSnapIndex = -1;
+    }
+
+    /**
+     * 获取所有锚点，不包含展开和收起两个位置
+     * @return 按升序排列的锚点slideOffset
+     */
+    public float[] getSnapPoints() {
+        return Arrays.copyOfRange(mSnapOffsets, 1, mSnapOffsets.length - 1);
+    }
+
+    /**
+     * 获取当前停留的锚点下标
+     * @return 锚点在{@link #getSnapPoints()}中的下标，不在锚点上时为-1
+     */
+    public int getSnapIndex() {
+        return mSnapIndex < 0 ? -1 : mSnapIndex - 1;
+    }
+
+    /**
+     * 设置松手后选择停靠点的方式
+     * @param mode RELEASE_MODE_RANGE_END、RELEASE_MODE_NEXT_SNAP或RELEASE_MODE_PROJECTED
+     */
+    public void setReleaseMode(int mode) {
+        if (mode != RELEASE_MODE_RANGE_END && mode != RELEASE_MODE_NEXT_SNAP
+                && mode != RELEASE_MODE_PROJECTED) {
+            throw new IllegalArgumentException("Unknown release mode " + mode);
+        }
+        mReleaseMode = mode;
+    }
+
+    /**
+     * 获取松手后选择停靠点的方式
+     * @return
+     */
+    public int getReleaseMode() {
+        return mReleaseMode;
+    }
+
+    /**
+     * 设置RELEASE_MODE_PROJECTED推算停止位置时使用的减速度，值越小，同样的速度滑得越远
+     * @param deceleration 单位dp每二次方秒，必须大于0
+     */
+    public void setReleaseDeceleration(float deceleration) {
+        if (deceleration <= 0) {
+            throw new IllegalArgumentException("deceleration must be positive");
+        }
+        mReleaseDeceleration = deceleration * getResources().getDisplayMetrics().density;
+    }
+
+    /**
+     * 设置panel停在锚点时的监听
+     * @param listener
+     */
+    public void setPanelSnapListener(PanelSnapListener listener) {
+        mPanelSnapListener = listener;
+    }
+
+    /**
+     * 设置main view覆盖状态的监听，设置后会先分发一次当前的状态
+     * @param listener
+     */
+    public void setPanelOcclusionListener(PanelOcclusionListener listener) {
+        mPanelOcclusionListener = listener;
+        mMainContentOcclusion = -1;
+        updateMainContentOcclusion();
+    }
+
+    /**
+     * 设置main view覆盖状态切换的滞后距离
+     * 覆盖超过此距离才离开MAIN_CONTENT_VISIBLE，露出超过此距离才离开MAIN_CONTENT_OBSCURED，
+     * 避免panel停在边界附近时状态来回切换
+     * @param hysteresis 单位像素
+     */
+    public void setOcclusionHysteresis(int hysteresis) {
+        mOcclusionHysteresis = Math.max(0, hysteresis);
+    }
+
+    /**
+     * 获取上次分发的main view覆盖状态
+     * @return MAIN_CONTENT_VISIBLE、MAIN_CONTENT_PARTIALLY_COVERED或MAIN_CONTENT_OBSCURED，
+     *         没有监听或还没有layout时为-1
+     */
+    public int getMainContentOcclusion() {
+        return mMainContentOcclusion;
+    }
+
+    /**
+     * 计算main view被panel覆盖的程度，状态变化时分发给监听
+     */
+    private void updateMainContentOcclusion() {
+        if (mPanelOcclusionListener == null || mMainView == null || mSlideableView == null
+                || getWidth() == 0) {
+            return;
+        }
+        //main view在本layout内的可见范围，包括视差偏移
+        final int mainTranslation = (int) mMainView.getTranslationY();
+        final int mainTop = Math.max(getPaddingTop(), mMainView.getTop() + mainTranslation);
+        final int mainBottom = Math.min(getHeight() - getPaddingBottom(),
+                mMainView.getBottom() + mainTranslation);
+        final int mainHeight = Math.max(0, mainBottom - mainTop);
+
+        //与updateObscuredViewVisibility相同，panel背景不是不透明的或横向没有完全挡住main view时，不算作覆盖
+        int covered = 0;
+        if (mSlideableView.getVisibility() == VISIBLE && hasOpaqueBackground(mSlideableView)
+                && mSlideableView.getLeft() <= mMainView.getLeft()
+                && mSlideableView.getRight() >= mMainView.getRight()) {
+            final int slideableTop = getSlideableTop();
+            final int slideableBottom = slideableTop + mSlideableView.getHeight();
+            covered = Math.max(0,
+                    Math.min(mainBottom, slideableBottom) - Math.max(mainTop, slideableTop));
+        }
+        final int visibleHeight = mainHeight - covered;
+
+        //按滞后距离决定新的状态
+        final int hysteresis = mOcclusionHysteresis;
+        final int previous = mMainContentOcclusion;
+        int occlusion;
+        if (visibleHeight <= 0) {
+            occlusion = MAIN_CONTENT_OBSCURED;
+        } else if (covered <= 0) {
+            occlusion = MAIN_CONTENT_VISIBLE;
+        } else {
+            occlusion = MAIN_CONTENT_PARTIALLY_COVERED;
+        }
+        if (previous == MAIN_CONTENT_VISIBLE && occlusion == MAIN_CONTENT_PARTIALLY_COVERED
+                && covered <= hysteresis) {
+            occlusion = MAIN_CONTENT_VISIBLE;
+        } else if (previous == MAIN_CONTENT_OBSCURED && occlusion == MAIN_CONTENT_PARTIALLY_COVERED
+                && visibleHeight <= hysteresis) {
+            occlusion = MAIN_CONTENT_OBSCURED;
+        }
+
+        if (occlusion == previous && (occlusion != MAIN_CONTENT_PARTIALLY_COVERED
+                || Math.abs(visibleHeight - mMainContentVisibleHeight) < Math.max(1, hysteresis))) {
+            return;
+        }
+        mMainContentOcclusion = occlusion;
+        mMainContentVisibleHeight = visibleHeight;
+        mPanelOcclusionListener.onMainContentOcclusionChanged(mMainView, occlusion, visibleHeight);
+    }
+
+    /**
+     * 设置COMPOSITING_MODE_SURFACE下视差偏移的监听
+     * @param listener
+     */
+    public void setPanelParallaxListener(PanelParallaxListener listener) {
+        mPanelParallaxListener = listener;
+    }
+
+    /**
+     * 设置main view的合成方式
+     * @param mode COMPOSITING_MODE_DEFAULT、COMPOSITING_MODE_SURFACE或COMPOSITING_MODE_AUTO
+     */
+    public void setCompositingMode(int mode) {
+        if (mode != COMPOSITING_MODE_DEFAULT && mode != COMPOSITING_MODE_SURFACE
+                && mode != COMPOSITING_MODE_AUTO) {
+            throw new IllegalArgumentException("Unknown compositing mode " + mode);
+        }
+        if (mode == mCompositingMode) {
+            return;
+        }
+        mCompositingMode = mode;
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * 获取main view的合成方式
+     * @return
+     */
+    public int getCompositingMode() {
+        return mCompositingMode;
+    }
+
+    /**
+     * 当前是否按COMPOSITING_MODE_SURFACE合成
+     * @return
+     */
+    public boolean isSurfaceCompositing() {
+        return mSurfaceCompositing;
+    }
+
+    /**
+     * 根据main view的内容更新合成方式，在measure时调用
+     */
+    private void updateSurfaceCompositing() {
+        if (mCompositingMode == COMPOSITING_MODE_AUTO) {
+            updateSurfaceInfo();
+        }
+        final boolean surface = mCompositingMode == COMPOSITING_MODE_SURFACE
+                || (mCompositingMode == COMPOSITING_MODE_AUTO && mMainViewHasSurface);
+        if (surface == mSurfaceCompositing) {
+            return;
+        }
+        mSurfaceCompositing = surface;
+        //打开时视差改由renderer处理，main view回到原位；关闭时重新按视差移动main view
+        applyParallax();
+        updateScrimView();
+        invalidate();
+    }
+
+    /**
+     * 按当前的slideOffset更新蒙层view的颜色、透明度和可见状态
+     * 只修改view的alpha，panel移动时本layout不需要为蒙层重绘
+     */
+    private void updateScrimView() {
+        if (mScrimView == null) {
+            return;
+        }
+        final int scrimAlpha = getScrimAlpha();
+        final boolean visible = mSurfaceCompositing && !mOverlayContent && scrimAlpha > 0
+                && mMainView != null && mMainView.getVisibility() == VISIBLE
+                && !mMainViewObscured;
+        if (!visible) {
+            if (mScrimView.getVisibility() == VISIBLE) {
+                mScrimView.setVisibility(INVISIBLE);
+            }
+            return;
+        }
+        final int color = 0xff000000 | mCoveredFadeColor;
+        if (color != mScrimView.mColor) {
+            mScrimView.mColor = color;
+            mScrimView.setBackgroundColor(color);
+        }
+        mScrimView.setAlpha((float) scrimAlpha / 255);
+        if (mScrimView.getVisibility() != VISIBLE) {
+            mScrimView.setVisibility(VISIBLE);
+        }
+    }
+
+    /**
+     * 蒙层是否由本layout在drawChild中画出
+     * overlay模式下不画蒙层，颜色的alpha为0时画不出任何东西，COMPOSITING_MODE_SURFACE下有蒙层view时由蒙层view完成
+     * @return
+     */
+    private boolean isScrimDrawnByLayout() {
+        return (mCoveredFadeColor >>> 24) != 0 && !mOverlayContent
+                && !(mSurfaceCompositing && mScrimView != null);
+    }
+
+    @Override
+    protected int getChildDrawingOrder(int childCount, int i) {
+        //蒙层view在main view之后、panel之前绘制
+        if (mScrimView == null || childCount != 3) {
+            return i;
+        }
+        return i == 0 ? 0 : i == 1 ? 2 : 1;
     }
 
     /**
      * 若为false 表示会在mMainview上加上一层蒙层
      * @param overlayed
      */
-    public void setOverlayed(boolean overlayed) {
-        mOverlayContent = overlayed;
+    public void setOverlayed(boolean overlayed) {
+        mOverlayContent = overlayed;
+        updateScrimView();
+    }
+
+    /**
+     * 获取是否在mMainview上加上一层蒙层
+     * @return
+     */
+    public boolean isOverlayed() {
+        return mOverlayContent;
+    }
+
+    /**
+     * 设置用于记录触摸事件和滑动变化的recorder，为null表示不记录
+     * @param recorder
+     */
+    public void setGestureTraceRecorder(GestureTraceRecorder recorder) {
+        mGestureTraceRecorder = recorder;
+    }
+
+    /**
+     * 获取当前的recorder
+     * @return
+     */
+    public GestureTraceRecorder getGestureTraceRecorder() {
+        return mGestureTraceRecorder;
+    }
+
+    /**
+     * 设置settle动画使用的时钟，为null表示使用系统的动画时钟
+     * 重放trace时注入固定推进的时钟，可保证每次重放的帧完全一致
+     * @param clock
+     */
+    public void setClock(ViewDragHelper.Clock clock) {
+        mDragHelper.setClock(clock);
+    }
+
+    /**
+     * 获取settle动画使用的时钟
+     * @return
+     */
+    public ViewDragHelper.Clock getClock() {
+        return mDragHelper.getClock();
+    }
+
+    /**
+     * 设置panel自动滑动到位时使用的动画引擎
+     * ViewDragHelper.SETTLE_ENGINE_SPRING会延续松手时的速度，中途改变目标时位置和速度保持连续，
+     * 并在静止后立即结束，而不是跑满固定时长
+     * @param engine ViewDragHelper.SETTLE_ENGINE_SCROLLER或ViewDragHelper.SETTLE_ENGINE_SPRING
+     */
+    public void setSettleEngine(int engine) {
+        mDragHelper.setSettleEngine(engine);
+    }
+
+    /**
+     * 获取panel自动滑动到位时使用的动画引擎
+     * @return
+     */
+    public int getSettleEngine() {
+        return mDragHelper.getSettleEngine();
+    }
+
+    /**
+     * 设置松手速度的计算方式
+     * ViewDragHelper.VELOCITY_SOURCE_ESTIMATOR会使用MotionEvent中批量的历史采样点，
+     * 在高采样率的触摸屏上得到的fling速度更稳定
+     * @param source ViewDragHelper.VELOCITY_SOURCE_PLATFORM或ViewDragHelper.VELOCITY_SOURCE_ESTIMATOR
+     */
+    public void setVelocitySource(int source) {
+        mDragHelper.setVelocitySource(source);
+    }
+
+    /**
+     * 获取松手速度的计算方式
+     * @return
+     */
+    public int getVelocitySource() {
+        return mDragHelper.getVelocitySource();
+    }
+
+    /**
+     * 设置拖动时是否预测手指位置
+     * 打开后panel会被放到按最近的采样推算出的、下一帧显示时手指所在的位置，减少跟手的延迟感
+     * 松手时panel先退回手指实际的位置，再开始settle
+     * @param enabled
+     */
+    public void setTouchPredictionEnabled(boolean enabled) {
+        mDragHelper.setTouchPredictionEnabled(enabled);
+    }
+
+    /**
+     * 设置预测手指位置时向前推算的时间，应与设备从触摸到显示的延迟接近
+     * 默认为屏幕刷新一帧的时长
+     * @param predictionTime 单位毫秒
+     */
+    public void setTouchPredictionTime(int predictionTime) {
+        mDragHelper.setTouchPredictionTime(predictionTime);
+    }
+
+    /**
+     * 设置panel的移动方式
+     * ViewDragHelper.MOVEMENT_TRANSLATION下panel的layout位置保持不变，移动通过translationY完成，
+     * 没有阴影和蒙层需要跟随时，每帧只更新render property，不需要重新记录本layout的display list
+     * @param mode ViewDragHelper.MOVEMENT_LAYOUT或ViewDragHelper.MOVEMENT_TRANSLATION
+     */
+    public void setMovementMode(int mode) {
+        if (mDragHelper == null || mode == mDragHelper.getMovementMode()) {
+            return;
+        }
+        mDragHelper.setMovementMode(mode);
+        //把当前的translationY合并回layout位置
+        if (mSlideableView != null) {
+            mSlideableView.setTranslationY(0);
+        }
+        requestLayout();
+    }
+
+    /**
+     * 获取panel的移动方式
+     * @return
+     */
+    public int getMovementMode() {
+        //编辑模式下没有mDragHelper，panel总是按layout位置摆放
+        return mDragHelper != null ? mDragHelper.getMovementMode() : ViewDragHelper.MOVEMENT_LAYOUT;
+    }
+
+    /**
+     * 设置阴影的绘制方式
+     * SHADOW_MODE_ELEVATION下阴影由slideable view的elevation产生，panel移动时本layout不需要为阴影重绘；
+     * slideable view没有背景时使用其边界作为outline
+     * @param mode SHADOW_MODE_DRAWN或SHADOW_MODE_ELEVATION
+     */
+    public void setShadowMode(int mode) {
+        if (mode != SHADOW_MODE_DRAWN && mode != SHADOW_MODE_ELEVATION) {
+            throw new IllegalArgumentException("Unknown shadow mode " + mode);
+        }
+        if (mode == mShadowMode) {
+            return;
+        }
+        mShadowMode = mode;
+        updateElevationShadow();
+        invalidate();
+    }
+
+    /**
+     * 获取阴影的绘制方式
+     * @return
+     */
+    public int getShadowMode() {
+        return mShadowMode;
+    }
+
+    /**
+     * 当前是否由本layout画阴影
+     * @return
+     */
+    private boolean isShadowDrawn() {
+        return mShadowHeight > 0 && !isElevationShadowActive();
+    }
+
+    /**
+     * 当前是否使用elevation产生阴影
+     * @return
+     */
+    private boolean isElevationShadowActive() {
+        return mShadowMode == SHADOW_MODE_ELEVATION && mShadowHeight > 0 && resolveElevationMethods();
+    }
+
+    /**
+     * 按当前的阴影方式设置或清除slideable view的elevation
+     */
+    private void updateElevationShadow() {
+        View target = isElevationShadowActive() ? mSlideableView : null;
+        if (target == mElevatedView) {
+            return;
+        }
+        if (mElevatedView != null) {
+            setElevationShadow(mElevatedView, mSavedElevation, mSavedOutlineProvider);
+            mSavedOutlineProvider = null;
+        }
+        if (target != null && saveElevationShadow(target)) {
+            //没有背景时outline为空，按view的边界产生阴影
+            setElevationShadow(target, mShadowHeight,
+                    target.getBackground() == null ? sOutlineProviderBounds : mSavedOutlineProvider);
+        } else {
+            target = null;
+        }
+        mElevatedView = target;
+    }
+
+    /**
+     * 反射获取elevation相关的函数，只在第一次调用时解析
+     * @return API 21以下或解析失败时返回false
+     */
+    private static boolean resolveElevationMethods() {
+        if (Build.VERSION.SDK_INT < API_LOLLIPOP) {
+            return false;
+        }
+        if (!sElevationResolved) {
+            sElevationResolved = true;
+            try {
+                final Class<?> providerClass = Class.forName("android.view.ViewOutlineProvider");
+                sOutlineProviderBounds = providerClass.getField("BOUNDS").get(null);
+                sSetOutlineProviderMethod = View.class.getMethod("setOutlineProvider", providerClass);
+                sGetOutlineProviderMethod = View.class.getMethod("getOutlineProvider");
+                sGetElevationMethod = View.class.getMethod("getElevation");
+                sSetElevationMethod = View.class.getMethod("setElevation", float.class);
+            } catch (Exception e) {
+                logElevationFailure("resolveElevationMethods: elevation is unavailable, drawing the shadow instead");
+                sSetElevationMethod = null;
+            }
+        }
+        return sSetElevationMethod != null;
+    }
+
+    /**
+     * 保存view当前的elevation和outline provider
+     * @param view
+     * @return 读取失败时返回false，此时不应修改view
+     */
+    private boolean saveElevationShadow(View view) {
+        try {
+            mSavedElevation = (Float) sGetElevationMethod.invoke(view);
+            mSavedOutlineProvider = sGetOutlineProviderMethod.invoke(view);
+            return true;
+        } catch (Exception e) {
+            logElevationFailure("saveElevationShadow: failed to read the elevation");
+            return false;
+        }
+    }
+
+    /**
+     * 设置view的elevation和outline provider
+     * @param view
+     * @param elevation
+     * @param outlineProvider 可以为null，表示没有outline
+     */
+    private static void setElevationShadow(View view, float elevation, Object outlineProvider) {
+        try {
+            sSetOutlineProviderMethod.invoke(view, outlineProvider);
+            sSetElevationMethod.invoke(view, elevation);
+        } catch (Exception e) {
+            logElevationFailure("setElevationShadow: failed to update the elevation");
+        }
+    }
+
+    /**
+     * elevation反射失败时只以debug级别记录一次，API 21以下不会走到这里
+     * @param message
+     */
+    private static void logElevationFailure(String message) {
+        if (!sElevationFailureLogged) {
+            sElevationFailureLogged = true;
+            Log.d(TAG, message);
+        }
+    }
+
+    /**
+     * panel移动时，本layout是否需要重绘
+     * MOVEMENT_TRANSLATION下只有阴影和蒙层需要跟随panel重绘
+     * @return
+     */
+    private boolean isRedrawnOnPanelMove() {
+        return getMovementMode() != ViewDragHelper.MOVEMENT_TRANSLATION
+                || isShadowDrawn() || isScrimDrawnByLayout();
+    }
+
+    /**
+     * panel移动后，只重绘受影响的区域：panel移动前后的区域和阴影，
+     * 蒙层可见时加上蒙层覆盖的main view区域，有视差偏移时加上main view移动前后的区域
+     * @param oldTop panel移动前的top
+     * @param newTop panel移动后的top
+     * @param oldSlideOffset panel移动前的slideOffset
+     * @param oldMainTranslation main view移动前的translationY
+     */
+    private void invalidatePanelMove(int oldTop, int newTop, float oldSlideOffset,
+            int oldMainTranslation) {
+        final Rect dirty = mDirtyRect;
+        dirty.set(mSlideableView.getLeft(), Math.min(oldTop, newTop), mSlideableView.getRight(),
+                Math.max(oldTop, newTop) + mSlideableView.getHeight());
+        if (isShadowDrawn()) {
+            if (mIsSlidingUp) {
+                dirty.top -= mShadowHeight;
+            } else {
+                dirty.bottom += mShadowHeight;
+            }
+        }
+        if (mMainView != null) {
+            //蒙层的透明度随slideOffset变化，覆盖整个main view；与drawScrim相同，透明度为0时不画
+            final boolean scrimVisible = isScrimDrawnByLayout()
+                    && (getScrimAlpha(oldSlideOffset) > 0 || getScrimAlpha() > 0);
+            if (scrimVisible || (mParalaxOffset > 0 && !mSurfaceCompositing)) {
+                final int mainTranslation = (int) mMainView.getTranslationY();
+                dirty.union(mMainView.getLeft(),
+                        mMainView.getTop() + Math.min(oldMainTranslation, mainTranslation),
+                        mMainView.getRight(),
+                        mMainView.getBottom() + Math.max(oldMainTranslation, mainTranslation));
+            }
+        }
+        invalidate(dirty);
+    }
+
+    /**
+     * 设置拖动时是否把同一帧内的多个move事件合并处理
+     * 打开后，每帧只移动一次panel、回调一次onPanelSlide并刷新一次，适合触摸采样率高于屏幕刷新率的设备
+     * @param enabled
+     */
+    public void setMoveCoalescingEnabled(boolean enabled) {
+        mDragHelper.setMoveCoalescingEnabled(enabled);
+    }
+
+    /**
+     * 设置SETTLE_ENGINE_SPRING的弹簧刚度，值越大滑动到位越快
+     * @param stiffness
+     */
+    public void setSpringStiffness(float stiffness) {
+        mDragHelper.setSpringStiffness(stiffness);
+    }
+
+    /**
+     * 当前时间，若注入了时钟，以注入的时钟为准
+     * @return
+     */
+    private long uptimeMillis() {
+        final ViewDragHelper.Clock clock = mDragHelper.getClock();
+        return clock != null ? clock.uptimeMillis() : SystemClock.uptimeMillis();
     }
 
     /**
-     * 获取是否在mMainview上加上一层蒙层
-     * @return
+     * 推进一帧，先应用合并中的拖动，再推进settle动画，不依赖绘制流程，供trace重放使用
+     * @return 若为true，表示settle还未结束
      */
-    public boolean isOverlayed() {
-        return mOverlayContent;
+    boolean stepSettle() {
+        mDragHelper.flushPendingDrag();
+        return mDragHelper.continueSettling(false);
     }
 
     /**
@@ -454,7 +1731,9 @@ public class SlidingUpPanelLayout extends ViewGroup {
      */
     void dispatchOnPanelSlide(View panel) {
         if (mPanelSlideListener != null) {
+            final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_DISPATCH_SLIDE);
             mPanelSlideListener.onPanelSlide(panel, mSlideOffset);
+            PanelTrace.endSection(traced);
         }
     }
     
@@ -488,6 +1767,9 @@ public class SlidingUpPanelLayout extends ViewGroup {
         if (mPanelSlideListener != null) {
             mPanelSlideListener.onPanelAnchored(panel);
         }
+        if (mPanelSnapListener != null) {
+            mPanelSnapListener.onPanelSnapped(panel, mSnapIndex - 1, mSnapOffsets[mSnapIndex]);
+        }
         sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
     }
 
@@ -509,8 +1791,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
         if (mSlideableView != null && hasOpaqueBackground(mSlideableView)) {
             left = mSlideableView.getLeft();
             right = mSlideableView.getRight();
-            top = mSlideableView.getTop();
-            bottom = mSlideableView.getBottom();
+            top = getSlideableTop();
+            bottom = top + mSlideableView.getHeight();
         } else {
             left = right = top = bottom = 0;
         }
@@ -519,27 +1801,199 @@ public class SlidingUpPanelLayout extends ViewGroup {
         final int clampedChildTop = Math.max(topBound, child.getTop());
         final int clampedChildRight = Math.min(rightBound, child.getRight());
         final int clampedChildBottom = Math.min(bottomBound, child.getBottom());
-        final int vis;
-        //计算若mMainView完全被覆盖时，就隐藏
-        if (clampedChildLeft >= left && clampedChildTop >= top &&
-                clampedChildRight <= right && clampedChildBottom <= bottom) {
-            vis = INVISIBLE;
-        } else {
-            vis = VISIBLE;
+        //计算若mMainView完全被覆盖时，就隐藏；OCCLUSION_MODE_SKIP_DRAW下只跳过绘制
+        final boolean obscured = clampedChildLeft >= left && clampedChildTop >= top &&
+                clampedChildRight <= right && clampedChildBottom <= bottom;
+        setMainViewObscured(obscured);
+        child.setVisibility(obscured && mOcclusionMode == OCCLUSION_MODE_VISIBILITY
+                ? INVISIBLE : VISIBLE);
+        updateScrimView();
+        //panel覆盖本layout的全部区域时，本layout整体是不透明的
+        setCoveredByPanel(obscured && left <= 0 && top <= 0
+                && right >= getWidth() && bottom >= getHeight());
+    }
+
+    /**
+     * 设置main view被panel完全覆盖时的处理方式
+     * @param mode OCCLUSION_MODE_VISIBILITY或OCCLUSION_MODE_SKIP_DRAW
+     */
+    public void setOcclusionMode(int mode) {
+        if (mode != OCCLUSION_MODE_VISIBILITY && mode != OCCLUSION_MODE_SKIP_DRAW) {
+            throw new IllegalArgumentException("Unknown occlusion mode " + mode);
+        }
+        if (mode == mOcclusionMode) {
+            return;
+        }
+        mOcclusionMode = mode;
+        //当前已被覆盖时，按新的方式切换main view的状态
+        if (mMainViewObscured && mMainView != null) {
+            mMainView.setVisibility(mode == OCCLUSION_MODE_VISIBILITY ? INVISIBLE : VISIBLE);
+        }
+        updateMainViewAccessibility();
+    }
+
+    /**
+     * 获取main view被panel完全覆盖时的处理方式
+     * @return
+     */
+    public int getOcclusionMode() {
+        return mOcclusionMode;
+    }
+
+    private void setMainViewObscured(boolean obscured) {
+        if (obscured == mMainViewObscured) {
+            return;
+        }
+        mMainViewObscured = obscured;
+        updateMainViewAccessibility();
+        invalidate();
+    }
+
+    /**
+     * OCCLUSION_MODE_SKIP_DRAW下main view保持VISIBLE，被覆盖时需要手动对无障碍服务隐藏并阻止子view获得焦点，
+     * 不再被覆盖时恢复原来的设置
+     */
+    private void updateMainViewAccessibility() {
+        final boolean hide = mMainViewObscured && mOcclusionMode == OCCLUSION_MODE_SKIP_DRAW
+                && mMainView != null;
+        if (mInaccessibleMainView != null && (!hide || mInaccessibleMainView != mMainView)) {
+            ViewCompat.setImportantForAccessibility(mInaccessibleMainView,
+                    mSavedImportantForAccessibility);
+            if (mInaccessibleMainView instanceof ViewGroup) {
+                ((ViewGroup) mInaccessibleMainView).setDescendantFocusability(
+                        mSavedDescendantFocusability);
+            }
+            mInaccessibleMainView = null;
+        }
+        if (!hide || mInaccessibleMainView != null) {
+            return;
+        }
+
+        mInaccessibleMainView = mMainView;
+        mSavedImportantForAccessibility = ViewCompat.getImportantForAccessibility(mMainView);
+        //API 19以下没有NO_HIDE_DESCENDANTS，只能隐藏main view本身
+        ViewCompat.setImportantForAccessibility(mMainView,
+                Build.VERSION.SDK_INT >= API_KITKAT
+                        ? IMPORTANT_FOR_ACCESSIBILITY_NO_HIDE_DESCENDANTS
+                        : ViewCompat.IMPORTANT_FOR_ACCESSIBILITY_NO);
+        if (mMainView instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) mMainView;
+            mSavedDescendantFocusability = group.getDescendantFocusability();
+            group.setDescendantFocusability(FOCUS_BLOCK_DESCENDANTS);
+        }
+        final View focused = mMainView.findFocus();
+        if (focused != null) {
+            focused.clearFocus();
         }
-        child.setVisibility(vis);
     }
 
     /**
      * 设置所有childview可见状态为VISIBLE
      */
     void setAllChildrenVisible() {
-        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+        for (int i = 0, childCount = getContentChildCount(); i < childCount; i++) {
             final View child = getChildAt(i);
             if (child.getVisibility() == INVISIBLE) {
                 child.setVisibility(VISIBLE);
             }
         }
+        setMainViewObscured(false);
+        updateScrimView();
+        setCoveredByPanel(false);
+    }
+
+    /**
+     * panel是否以不透明的背景覆盖了本layout的全部区域
+     * 为true时本layout会报告自身不透明，宿主可以跳过被覆盖部分的绘制，例如decor的背景
+     * @return
+     */
+    public boolean isCoveredByPanel() {
+        return mCoveredByPanel;
+    }
+
+    @Override
+    public boolean isOpaque() {
+        return mCoveredByPanel || super.isOpaque();
+    }
+
+    /**
+     * 设置panel覆盖全部区域时是否清除window的背景，panel开始移动时恢复
+     * 只有在window的其余部分也被不透明地绘制时才应打开，例如本layout占满整个window
+     * @param enabled
+     */
+    public void setWindowBackgroundClearingEnabled(boolean enabled) {
+        mWindowBackgroundClearingEnabled = enabled;
+        if (!enabled) {
+            restoreWindowBackground();
+        } else if (mCoveredByPanel) {
+            clearWindowBackground();
+        }
+    }
+
+    private void setCoveredByPanel(boolean covered) {
+        if (covered == mCoveredByPanel) {
+            return;
+        }
+        mCoveredByPanel = covered;
+        if (covered) {
+            clearWindowBackground();
+        } else {
+            restoreWindowBackground();
+        }
+        invalidate();
+    }
+
+    /**
+     * 通过Activity的Window清除window的背景，不直接修改decor view
+     * 本layout不在Activity的window中时（例如Dialog、PopupWindow）不做处理
+     */
+    private void clearWindowBackground() {
+        if (!mWindowBackgroundClearingEnabled || mClearedWindowBackgroundWindow != null
+                || getWindowToken() == null) {
+            return;
+        }
+        final Window window = findActivityWindow();
+        if (window == null) {
+            return;
+        }
+        final View decor = window.peekDecorView();
+        if (decor == null || decor == this || decor != getRootView()) {
+            return;
+        }
+        final Drawable background = decor.getBackground();
+        if (background == null) {
+            return;
+        }
+        mClearedWindowBackgroundWindow = window;
+        mClearedWindowBackground = background;
+        window.setBackgroundDrawable(null);
+    }
+
+    /**
+     * 恢复被清除的window背景
+     */
+    private void restoreWindowBackground() {
+        if (mClearedWindowBackgroundWindow == null) {
+            return;
+        }
+        mClearedWindowBackgroundWindow.setBackgroundDrawable(mClearedWindowBackground);
+        mClearedWindowBackgroundWindow = null;
+        mClearedWindowBackground = null;
+    }
+
+    /**
+     * 查找本layout所在的Activity的Window
+     * @return 不是Activity的context时返回null
+     */
+    private Window findActivityWindow() {
+        Context context = getContext();
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return ((Activity) context).getWindow();
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
     }
 
     /**
@@ -552,16 +2006,37 @@ public class SlidingUpPanelLayout extends ViewGroup {
         return bg != null && bg.getOpacity() == PixelFormat.OPAQUE;
     }
 
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        //本layout需要自己监听子view的增删，外部的监听由mHierarchyChangeListener转发
+        mOnHierarchyChangeListener = listener;
+    }
+
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
         mFirstLayout = true;
+        mSurfaceInfoValid = false;
+        mDragViewRectValid = false;
+        final ViewTreeObserver observer = getViewTreeObserver();
+        observer.addOnScrollChangedListener(mDragViewScrollListener);
+        observer.addOnGlobalLayoutListener(mDragViewGlobalLayoutListener);
     }
 
     @Override
+    @SuppressWarnings("deprecation")
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         mFirstLayout = true;
+        final ViewTreeObserver observer = getViewTreeObserver();
+        observer.removeOnScrollChangedListener(mDragViewScrollListener);
+        observer.removeGlobalOnLayoutListener(mDragViewGlobalLayoutListener);
+        restoreWindowBackground();
+        mCoveredByPanel = false;
+        if (mFrameStatsTracker != null) {
+            mFrameStatsTracker.stop();
+        }
+        disableHardwareLayers();
     }
 
     @Override
@@ -578,10 +2053,13 @@ public class SlidingUpPanelLayout extends ViewGroup {
             throw new IllegalStateException("Height must have an exact value or MATCH_PARENT");
         }
 
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_MEASURE);
+
         int layoutHeight = heightSize - getPaddingTop() - getPaddingBottom();
         int panelHeight = mPanelHeight;
 
-        final int childCount = getChildCount();
+        //蒙层view不计入，单独measure
+        final int childCount = getContentChildCount();
 
         if (childCount > 2) {
             Log.e(TAG, "onMeasure: More than two child views are not supported.");
@@ -637,16 +2115,28 @@ public class SlidingUpPanelLayout extends ViewGroup {
             child.measure(childWidthSpec, childHeightSpec);
         }
 
+        updateSurfaceCompositing();
+        //蒙层view与main view大小相同
+        if (mScrimView != null && mMainView != null) {
+            mScrimView.measure(
+                    MeasureSpec.makeMeasureSpec(mMainView.getMeasuredWidth(), MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(mMainView.getMeasuredHeight(), MeasureSpec.EXACTLY));
+            updateScrimView();
+        }
+
         setMeasuredDimension(widthSize, heightSize);
+        PanelTrace.endSection(traced);
     }
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_LAYOUT);
         final int paddingLeft = getPaddingLeft();
         final int paddingTop = getPaddingTop();
-        final int slidingTop = getSlidingTop();
+        mSlidingTop = computeSlidingTop();
+        final int slidingTop = mSlidingTop;
 
-        final int childCount = getChildCount();
+        final int childCount = getContentChildCount();
 
         //根据当前mSlideState，初始化mSlideOffset值
         if (mFirstLayout) {
@@ -655,7 +2145,13 @@ public class SlidingUpPanelLayout extends ViewGroup {
                 mSlideOffset = mCanSlide ? 0.f : 1.f;
                 break;
             case ANCHORED:
-                mSlideOffset = mCanSlide ? mAnchorPoint : 1.f;
+                //恢复时mSnapIndex可能已失效，此时使用最靠近展开的锚点
+                if (mSnapIndex <= 0 || mSnapIndex >= mSnapOffsets.length - 1) {
+                    mSnapIndex = mSnapOffsets.length > 2 ? 1 : -1;
+                }
+                //没有锚点时与原来一样停在0
+                final float anchorOffset = mSnapIndex > 0 ? mSnapOffsets[mSnapIndex] : 0.f;
+                mSlideOffset = mCanSlide ? anchorOffset : 1.f;
                 break;
             default:
                 mSlideOffset = 1.f;
@@ -694,13 +2190,33 @@ public class SlidingUpPanelLayout extends ViewGroup {
             
             //完成child view的layout
             child.layout(childLeft, childTop, childRight, childBottom);
+            //MOVEMENT_TRANSLATION下，layout时把translationY合并回layout位置
+            if (lp.slideable && getMovementMode() == ViewDragHelper.MOVEMENT_TRANSLATION) {
+                child.setTranslationY(0);
+            }
+        }
+
+        //蒙层view与main view的位置相同
+        if (mScrimView != null && mMainView != null) {
+            mScrimView.layout(mMainView.getLeft(), mMainView.getTop(), mMainView.getRight(),
+                    mMainView.getBottom());
         }
+        //panel的位置可能不经过拖动就发生变化，例如第一次layout和恢复状态，这里同步视差偏移
+        applyParallax();
+
+        //slideable view可能在measure时发生变化
+        updateElevationShadow();
 
         if (mFirstLayout) {
             updateObscuredViewVisibility();
         }
 
+        //layout完成后，重新缓存drag view的区域
+        updateDragViewRect();
+        updateMainContentOcclusion();
+
         mFirstLayout = false;
+        PanelTrace.endSection(traced);
     }
 
     @Override
@@ -720,11 +2236,33 @@ public class SlidingUpPanelLayout extends ViewGroup {
         mIsUsingDragViewTouchEvents = enabled;
     }
 
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        if (mGestureTraceRecorder != null) {
+            mGestureTraceRecorder.recordMotionEvent(ev);
+        }
+        return super.dispatchTouchEvent(ev);
+    }
+
     @Override
     public boolean onInterceptTouchEvent(MotionEvent ev) {
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_INTERCEPT);
+        try {
+            return interceptTouchEvent(ev);
+        } finally {
+            PanelTrace.endSection(traced);
+        }
+    }
+
+    private boolean interceptTouchEvent(MotionEvent ev) {
         final int action = MotionEventCompat.getActionMasked(ev);
 
-        if (!mCanSlide || !mIsSlidingEnabled || (mIsUnableToDrag && action != MotionEvent.ACTION_DOWN)) {
+        //手势已判定为与panel无关，之后的事件只需这一次判断
+        if (mArbitration >= ARBITRATION_CHILD_HORIZONTAL && action != MotionEvent.ACTION_DOWN) {
+            return false;
+        }
+
+        if (!mCanSlide || !mIsSlidingEnabled) {
             //滑动状态清空
         	mDragHelper.cancel();
             return super.onInterceptTouchEvent(ev);
@@ -733,6 +2271,7 @@ public class SlidingUpPanelLayout extends ViewGroup {
         if (action == MotionEvent.ACTION_CANCEL || action == MotionEvent.ACTION_UP) {
         	//滑动状态清空
         	mDragHelper.cancel();
+            disableHardwareLayersIfIdle();
             return false;
         }
 
@@ -743,12 +2282,29 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
-                mIsUnableToDrag = false;
+                mArbitration = ARBITRATION_UNDECIDED;
                 mInitialMotionX = x;
                 mInitialMotionY = y;
-                //满足此条件 表示拦截此事件  接下来会正式交给drag view的触摸事件
-                if (isDragViewUnder((int) x, (int) y) && !mIsUsingDragViewTouchEvents) {
-                    interceptTap = true;
+                if (isDragViewUnder((int) x, (int) y)) {
+                    if (mDragViewImmediateCapture) {
+                        //drag view上的竖向滑动没有歧义，按下时就捕获panel，跳过touch slop
+                        mDragHelper.shouldInterceptTouchEvent(ev);
+                        mDragHelper.captureChildView(mSlideableView,
+                                MotionEventCompat.getPointerId(ev, 0));
+                        return true;
+                    }
+                    //满足此条件 表示拦截此事件  接下来会正式交给drag view的触摸事件
+                    if (!mIsUsingDragViewTouchEvents) {
+                        interceptTap = true;
+                    }
+                } else if (!mDragHelper.isViewUnder(mSlideableView, (int) x, (int) y)) {
+                    //按在main view上，这个手势不可能拖动panel
+                    mDragHelper.cancel();
+                    mArbitration = ARBITRATION_REJECTED;
+                    return false;
+                }
+                if (mHardwareLayerPrewarmEnabled) {
+                    enableHardwareLayers(true);
                 }
                 break;
             }
@@ -760,9 +2316,12 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
                 //处理可能有的横向滚动事件
                 if (mIsUsingDragViewTouchEvents) {
-                	//满足此条件，处理横向触摸事件
+                	//满足此条件，这个手势交给drag view处理横向触摸事件
                     if (adx > mScrollTouchSlop && ady < mScrollTouchSlop) {
-                        return super.onInterceptTouchEvent(ev);
+                        mDragHelper.cancel();
+                        mArbitration = ARBITRATION_CHILD_HORIZONTAL;
+                        disableHardwareLayersIfIdle();
+                        return false;
                     }
                     //满足此条件，表示有有效的竖向触摸事件，那么若触摸事件落在drag view上，需优先处理竖向触摸事件，忽略横向触摸事件
                     else if (ady > mScrollTouchSlop) {
@@ -773,7 +2332,8 @@ public class SlidingUpPanelLayout extends ViewGroup {
                 if ((ady > dragSlop && adx > ady) || !isDragViewUnder((int) x, (int) y)) {
                 	//滑动状态清空
                 	mDragHelper.cancel();
-                    mIsUnableToDrag = true;
+                    mArbitration = ARBITRATION_REJECTED;
+                    disableHardwareLayersIfIdle();
                     return false;
                 }
                 break;
@@ -787,6 +2347,15 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
     @Override
     public boolean onTouchEvent(MotionEvent ev) {
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_TOUCH);
+        try {
+            return handleTouchEvent(ev);
+        } finally {
+            PanelTrace.endSection(traced);
+        }
+    }
+
+    private boolean handleTouchEvent(MotionEvent ev) {
         if (!mCanSlide || !mIsSlidingEnabled) {
             return super.onTouchEvent(ev);
         }
@@ -818,7 +2387,9 @@ public class SlidingUpPanelLayout extends ViewGroup {
                     dragView.playSoundEffect(SoundEffectConstants.CLICK);
                     //点击事件处理 展开或收起
                     if (!isExpanded() && !isAnchored()) {
-                        expandPane(mAnchorPoint);
+                        //从收起状态展开到最靠近收起的锚点，没有锚点时完全展开
+                        expandPane(mSnapOffsets[DragMath.findNextSnapIndex(mSnapOffsets,
+                                mSlideOffset, -1)]);
                     } else {
                         collapsePane();
                     }
@@ -828,6 +2399,10 @@ public class SlidingUpPanelLayout extends ViewGroup {
             }
         }
 
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            disableHardwareLayersIfIdle();
+        }
+
         return wantTouchEvents;
     }
 
@@ -838,16 +2413,56 @@ public class SlidingUpPanelLayout extends ViewGroup {
      * @return
      */
     private boolean isDragViewUnder(int x, int y) {
-        View dragView = mDragView != null ? mDragView : mSlideableView;
-        if (dragView == null) return false;
-        int[] viewLocation = new int[2];
-        dragView.getLocationOnScreen(viewLocation);
-        int[] parentLocation = new int[2];
-        this.getLocationOnScreen(parentLocation);
-        int screenX = parentLocation[0] + x;
-        int screenY = parentLocation[1] + y;
-        return screenX >= viewLocation[0] && screenX < viewLocation[0] + dragView.getWidth() &&
-                screenY >= viewLocation[1] && screenY < viewLocation[1] + dragView.getHeight();
+        if (!mDragViewRectValid && !updateDragViewRect()) {
+            return false;
+        }
+        //panel滑动后，只需根据slideable view的偏移修正缓存的区域
+        final int dy = mDragViewInSlideable ? getSlideableTop() - mDragViewRectSlideTop : 0;
+        return x >= mDragViewRect.left && x < mDragViewRect.right &&
+                y >= mDragViewRect.top + dy && y < mDragViewRect.bottom + dy;
+    }
+
+    /**
+     * 沿着parent链计算drag view相对于本layout的区域，并缓存到mDragViewRect
+     * @return 若drag view不在本layout内，返回false
+     */
+    private boolean updateDragViewRect() {
+        mDragViewRectValid = false;
+        final View dragView = mDragView != null ? mDragView : mSlideableView;
+        if (dragView == null || mSlideableView == null) {
+            return false;
+        }
+        int left = 0;
+        int top = 0;
+        boolean inSlideable = false;
+        View v = dragView;
+        while (v != this) {
+            if (v == mSlideableView) {
+                inSlideable = true;
+            }
+            left += v.getLeft() + (int) v.getTranslationX();
+            top += v.getTop() + (int) v.getTranslationY();
+            final ViewParent parent = v.getParent();
+            if (!(parent instanceof View)) {
+                return false;
+            }
+            v = (View) parent;
+            left -= v.getScrollX();
+            top -= v.getScrollY();
+        }
+        mDragViewRect.set(left, top, left + dragView.getWidth(), top + dragView.getHeight());
+        mDragViewInSlideable = inSlideable;
+        mDragViewRectSlideTop = getSlideableTop();
+        mDragViewRectValid = true;
+        return true;
+    }
+
+    /**
+     * 获取slideable view当前实际显示的top值(包含translationY)
+     * @return
+     */
+    private int getSlideableTop() {
+        return mSlideableView.getTop() + (int) mSlideableView.getTranslationY();
     }
 
     /**
@@ -872,11 +2487,20 @@ public class SlidingUpPanelLayout extends ViewGroup {
     }
 
     /**
-     * 若mIsSlidingUp为true，计算slideable view完全展开的top值
-     * 若mIsSlidingUp为false，计算slideable view完全收起的top值
+     * 若mIsSlidingUp为true，slideable view完全展开的top值
+     * 若mIsSlidingUp为false，slideable view完全收起的top值
+     * 此值在onLayout时缓存，滑动过程中不再重新计算
      * @return
      */
     private int getSlidingTop() {
+        return mSlidingTop;
+    }
+
+    /**
+     * 根据measure的结果计算getSlidingTop()的值
+     * @return
+     */
+    private int computeSlidingTop() {
         if (mSlideableView != null) {
             return mIsSlidingUp
                     ? getMeasuredHeight() - getPaddingBottom() - mSlideableView.getMeasuredHeight()
@@ -989,61 +2613,205 @@ public class SlidingUpPanelLayout extends ViewGroup {
         mSlideOffset = mIsSlidingUp
                 ? (float) (newTop - topBound) / mSlideRange
                 : (float) (topBound - newTop) / mSlideRange;
+        if (mGestureTraceRecorder != null) {
+            mGestureTraceRecorder.recordSlide(uptimeMillis(), mSlideOffset, mSlideState.ordinal());
+        }
+        PanelTrace.setCounter(PanelTrace.COUNTER_SLIDE_OFFSET, (long) (mSlideOffset * 1000));
         dispatchOnPanelSlide(mSlideableView);
+        updateScrimView();
+        applyParallax();
+        updateMainContentOcclusion();
+    }
 
-        if (mParalaxOffset > 0) {
-        	//开始计算mMainView的位移
-            int mainViewOffset = getCurrentParalaxOffset();
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                mMainView.setTranslationY(mainViewOffset);
-            } else {
-                AnimatorProxy.wrap(mMainView).setTranslationY(mainViewOffset);
+    /**
+     * 按当前的slideOffset设置main view的视差偏移
+     * COMPOSITING_MODE_SURFACE下移动surface的代价很高，main view保持在原位，只把偏移值交给main view的renderer
+     */
+    private void applyParallax() {
+        if (mMainView == null) {
+            return;
+        }
+        if (mSurfaceCompositing) {
+            setMainViewTranslation(0);
+            if (mParalaxOffset > 0 && mPanelParallaxListener != null) {
+                mPanelParallaxListener.onPanelParallax(mMainView, getCurrentParalaxOffset());
             }
+        } else if (mParalaxOffset > 0) {
+            setMainViewTranslation(getCurrentParalaxOffset());
+        }
+    }
+
+    private void setMainViewTranslation(int translation) {
+        if ((int) mMainView.getTranslationY() == translation) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mMainView.setTranslationY(translation);
+        } else {
+            AnimatorProxy.wrap(mMainView).setTranslationY(translation);
+        }
+        //drag view在main view中时跟随视差移动
+        if (!mDragViewInSlideable) {
+            mDragViewRectValid = false;
         }
     }
 
     @Override
     protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        //被panel完全覆盖的main view不需要绘制
+        if (mMainViewObscured && child == mMainView) {
+            return false;
+        }
+
         final LayoutParams lp = (LayoutParams) child.getLayoutParams();
-        boolean result;
-        //必须需要save后，来clipRect
-        final int save = canvas.save(Canvas.CLIP_SAVE_FLAG);
 
-        boolean drawScrim = false;
+        //panel本身和蒙层view不需要clip和蒙层
+        if (!mCanSlide || lp.slideable || mSlideableView == null || child == mScrimView) {
+            return drawChildTraced(canvas, child, drawingTime);
+        }
 
-        if (mCanSlide && !lp.slideable && mSlideableView != null) {
-            // Clip against the slider; no sense drawing what will immediately be covered,
-            // Unless the panel is set to overlay content
-            if (!mOverlayContent) {
-                canvas.getClipBounds(mTmpRect);
-                if (mIsSlidingUp) {
-                    mTmpRect.bottom = Math.min(mTmpRect.bottom, mSlideableView.getTop());
-                } else {
-                    mTmpRect.top = Math.max(mTmpRect.top, mSlideableView.getBottom());
-                }
-                canvas.clipRect(mTmpRect);
+        //COMPOSITING_MODE_SURFACE下panel不透明，clip对surface也不起作用，main view不clip
+        //蒙层由蒙层view完成，没有蒙层view时在main view上画出
+        if (mSurfaceCompositing) {
+            final boolean result = drawChildTraced(canvas, child, drawingTime);
+            if (isScrimDrawnByLayout() && !mOverlayContent) {
+                mTmpRect.set(child.getLeft(), child.getTop(), child.getRight(), child.getBottom());
+                drawScrim(canvas, mTmpRect, getScrimAlpha());
             }
-            // <1表示非完全收起,需要画蒙层
-            if (mSlideOffset < 1) {
-                drawScrim = true;
+            return result;
+        }
+
+        final int slideableTop = getSlideableTop();
+        final int slideableBottom = slideableTop + mSlideableView.getHeight();
+        final int childTranslation = (int) child.getTranslationY();
+        final boolean overlaps = slideableTop < child.getBottom() + childTranslation
+                && slideableBottom > child.getTop() + childTranslation;
+
+        if (mOverlayContent) {
+            return drawOverlaidChild(canvas, child, drawingTime, overlaps, slideableTop,
+                    slideableBottom);
+        }
+
+        final int scrimAlpha = getScrimAlpha();
+
+        //panel完全收起时与main view不重叠，也没有蒙层，直接绘制
+        if (!overlaps && scrimAlpha == 0) {
+            return drawChildTraced(canvas, child, drawingTime);
+        }
+
+        // Clip against the slider; no sense drawing what will immediately be covered
+        canvas.getClipBounds(mTmpRect);
+        //panel移动时若本layout不重绘，clip会停留在旧的位置，此时不能clip
+        final boolean clip = overlaps && isRedrawnOnPanelMove();
+        if (clip) {
+            if (mIsSlidingUp) {
+                mTmpRect.bottom = Math.min(mTmpRect.bottom, slideableTop);
+            } else {
+                mTmpRect.top = Math.max(mTmpRect.top, slideableBottom);
             }
         }
 
-        result = super.drawChild(canvas, child, drawingTime);
-        canvas.restoreToCount(save);
+        final boolean result;
+        if (clip) {
+            //必须需要save后，来clipRect
+            final int save = canvas.save(Canvas.CLIP_SAVE_FLAG);
+            canvas.clipRect(mTmpRect);
+            result = drawChildTraced(canvas, child, drawingTime);
+            canvas.restoreToCount(save);
+        } else {
+            result = drawChildTraced(canvas, child, drawingTime);
+        }
 
         //非完全收起情况下，需要画一个半透明的蒙层
-        if (drawScrim && mCoveredFadeColor != 0) {
-            final int baseAlpha = (mCoveredFadeColor & 0xff000000) >>> 24;//取alpha值
-            final int imag = (int) (baseAlpha * (1 - mSlideOffset));//根据滑动的距离越大，蒙层透明度越低
-            final int color = imag << 24 | (mCoveredFadeColor & 0xffffff);
+        drawScrim(canvas, mTmpRect, scrimAlpha);
+
+        return result;
+    }
+
+    /**
+     * 在main view上画半透明的蒙层
+     * @param canvas
+     * @param rect 蒙层的区域
+     * @param scrimAlpha 为0时不画
+     */
+    private void drawScrim(Canvas canvas, Rect rect, int scrimAlpha) {
+        if (scrimAlpha == 0) {
+            return;
+        }
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_DRAW_SCRIM);
+        final int color = scrimAlpha << 24 | (mCoveredFadeColor & 0xffffff);
+        if (color != mCoveredFadePaintColor) {
             mCoveredFadePaint.setColor(color);
-            canvas.drawRect(mTmpRect, mCoveredFadePaint);
+            mCoveredFadePaintColor = color;
+        }
+        canvas.drawRect(rect, mCoveredFadePaint);
+        PanelTrace.endSection(traced);
+    }
+
+    /**
+     * overlay模式下画main view，不画蒙层
+     * panel的背景不透明并且横向完全挡住main view时，每帧都clip掉被panel遮住的部分；
+     * main view整个落在panel后面时直接跳过，不调用它的draw。
+     * main view内部的子view不做单独处理，只由canvas按clip剔除，不改变它们的visibility
+     * @return
+     */
+    private boolean drawOverlaidChild(Canvas canvas, View child, long drawingTime,
+            boolean overlaps, int slideableTop, int slideableBottom) {
+        //panel移动时若本layout不重绘，clip会停留在旧的位置，此时不能clip
+        if (!overlaps || !isRedrawnOnPanelMove() || !hasOpaqueBackground(mSlideableView)
+                || mSlideableView.getLeft() > child.getLeft()
+                || mSlideableView.getRight() < child.getRight()) {
+            return drawChildTraced(canvas, child, drawingTime);
+        }
+
+        //main view完全在panel后面，跳过绘制
+        final int childTranslation = (int) child.getTranslationY();
+        if (slideableTop <= child.getTop() + childTranslation
+                && slideableBottom >= child.getBottom() + childTranslation) {
+            return false;
+        }
+
+        canvas.getClipBounds(mTmpRect);
+        if (mIsSlidingUp) {
+            mTmpRect.bottom = Math.min(mTmpRect.bottom, slideableTop);
+        } else {
+            mTmpRect.top = Math.max(mTmpRect.top, slideableBottom);
         }
+        final int save = canvas.save(Canvas.CLIP_SAVE_FLAG);
+        canvas.clipRect(mTmpRect);
+        final boolean result = drawChildTraced(canvas, child, drawingTime);
+        canvas.restoreToCount(save);
+        return result;
+    }
 
+    private boolean drawChildTraced(Canvas canvas, View child, long drawingTime) {
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_DRAW_CHILD);
+        final boolean result = super.drawChild(canvas, child, drawingTime);
+        PanelTrace.endSection(traced);
         return result;
     }
 
+    /**
+     * 计算当前蒙层的透明度，滑动的距离越大，蒙层透明度越低
+     * @return 0表示不需要画蒙层
+     */
+    private int getScrimAlpha() {
+        return getScrimAlpha(mSlideOffset);
+    }
+
+    /**
+     * 计算给定slideOffset下蒙层的透明度
+     * @param slideOffset
+     * @return 0表示不需要画蒙层
+     */
+    private int getScrimAlpha(float slideOffset) {
+        if (mCoveredFadeColor == 0 || slideOffset >= 1) {
+            return 0;
+        }
+        final int baseAlpha = (mCoveredFadeColor & 0xff000000) >>> 24;//取alpha值
+        return (int) (baseAlpha * (1 - slideOffset));
+    }
+
     /**
      * <code>mSlideableView</code>滑动到指定位置，有动画效果
      * @param slideOffset
@@ -1057,14 +2825,18 @@ public class SlidingUpPanelLayout extends ViewGroup {
             return false;
         }
 
-        final int topBound = getSlidingTop();
         //计算滑动到最终坐标的y值
-        int y = mIsSlidingUp
-                ? (int) (topBound + slideOffset * mSlideRange)
-                : (int) (topBound - slideOffset * mSlideRange);
+        final int y = computeTopForOffset(slideOffset);
+
+        //settle中途改变目标时ViewDragHelper的状态不变，不会回调onViewDragStateChanged
+        final boolean retarget = mDragHelper.getViewDragState() == ViewDragHelper.STATE_SETTLING;
 
         //开始准备滑动mSlideableView到指定位置
         if (mDragHelper.smoothSlideViewTo(mSlideableView, mSlideableView.getLeft(), y)) {
+            if (retarget && mFrameStatsTracker != null && mPanelFrameStatsListener != null) {
+                //旧目标的统计到此结束，按新目标的计划时长重新开始统计
+                updateFrameStats(ViewDragHelper.STATE_SETTLING);
+            }
             setAllChildrenVisible();
             //刷新view
             ViewCompat.postInvalidateOnAnimation(this);
@@ -1073,17 +2845,30 @@ public class SlidingUpPanelLayout extends ViewGroup {
         return false;
     }
 
+    /**
+     * 计算slideOffset对应的slideable view的top值，是onPanelDragged中换算的逆运算
+     * @param slideOffset
+     * @return
+     */
+    private int computeTopForOffset(float slideOffset) {
+        final int topBound = getSlidingTop();
+        return mIsSlidingUp
+                ? (int) (topBound + slideOffset * mSlideRange)
+                : (int) (topBound - slideOffset * mSlideRange);
+    }
+
     @Override
     public void computeScroll() {
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_COMPUTE_SCROLL);
     	//在滑动中，若此时是非move事件触发的，DragHelper会把当前的mDragState设置为STATE_SETTLING。此时会进入此分支，来处理接下来的位移动画
         if (mDragHelper.continueSettling(true)) {
             if (!mCanSlide) {
                 mDragHelper.abort();
-                return;
+            } else {
+                ViewCompat.postInvalidateOnAnimation(this);
             }
-
-            ViewCompat.postInvalidateOnAnimation(this);
         }
+        PanelTrace.endSection(traced);
     }
 
     @Override
@@ -1097,21 +2882,39 @@ public class SlidingUpPanelLayout extends ViewGroup {
         
         //计算阴影的范围
         final int right = mSlideableView.getRight();
+        final int slideableTop = getSlideableTop();
         final int top;
         final int bottom;
         if (mIsSlidingUp) {
-            top = mSlideableView.getTop() - mShadowHeight;
-            bottom = mSlideableView.getTop();
+            top = slideableTop - mShadowHeight;
+            bottom = slideableTop;
         } else {
-            top = mSlideableView.getBottom();
-            bottom = mSlideableView.getBottom() + mShadowHeight;
+            top = slideableTop + mSlideableView.getHeight();
+            bottom = top + mShadowHeight;
         }
         final int left = mSlideableView.getLeft();
         
-        //画阴影
-        if (mShadowDrawable != null) {
-            mShadowDrawable.setBounds(left, top, right, bottom);
-            mShadowDrawable.draw(c);
+        //画阴影，范围不变时直接复用上次的矩阵
+        if (isShadowDrawn()) {
+            final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_DRAW_SHADOW);
+            final Rect bounds = mShadowBounds;
+            if (bounds.left != left || bounds.top != top
+                    || bounds.right != right || bounds.bottom != bottom) {
+                bounds.set(left, top, right, bottom);
+                //shader在[0, 1]内从SHADOW_COLOR渐变到透明，颜色深的一端贴着panel
+                if (mIsSlidingUp) {
+                    mShadowMatrix.setScale(right - left, -mShadowHeight);
+                    mShadowMatrix.postTranslate(left, bottom);
+                } else {
+                    mShadowMatrix.setScale(right - left, mShadowHeight);
+                    mShadowMatrix.postTranslate(left, top);
+                }
+            }
+            final int saveCount = c.save();
+            c.concat(mShadowMatrix);
+            c.drawRect(0, 0, 1, 1, sShadowPaint);
+            c.restoreToCount(saveCount);
+            PanelTrace.endSection(traced);
         }
     }
 
@@ -1165,6 +2968,7 @@ public class SlidingUpPanelLayout extends ViewGroup {
 
         SavedState ss = new SavedState(superState);
         ss.mSlideState = mSlideState;
+        ss.mSnapIndex = mSnapIndex;
 
         return ss;
     }
@@ -1175,6 +2979,7 @@ public class SlidingUpPanelLayout extends ViewGroup {
         SavedState ss = (SavedState) state;
         super.onRestoreInstanceState(ss.getSuperState());
         mSlideState = ss.mSlideState;
+        mSnapIndex = ss.mSnapIndex;
     }
 
     private class DragHelperCallback extends ViewDragHelper.Callback {
@@ -1183,36 +2988,60 @@ public class SlidingUpPanelLayout extends ViewGroup {
     	//若为true表示可以滑动，并且ViewDragHelper会把state设置为STATE_DRAGGING
         @Override
         public boolean tryCaptureView(View child, int pointerId) {
-            if (mIsUnableToDrag) {
+            if (mArbitration >= ARBITRATION_CHILD_HORIZONTAL) {
                 return false;
             }
 
             return ((LayoutParams) child.getLayoutParams()).slideable;
         }
 
+        //按绘制顺序查找触摸点下的view，蒙层view不会挡住panel
+        @Override
+        public int getOrderedChildIndex(int index) {
+            return getChildDrawingOrder(getChildCount(), index);
+        }
+
         //ViewDragHelper维护的状态发生变化时，会回调此函数
         @Override
         public void onViewDragStateChanged(int state) {
-            int anchoredTop = (int)(mAnchorPoint*mSlideRange);
+            PanelTrace.setCounter(PanelTrace.COUNTER_DRAG_STATE, state);
+            if (mFrameStatsTracker != null && mPanelFrameStatsListener != null) {
+                updateFrameStats(state);
+            }
+            if (state == ViewDragHelper.STATE_IDLE) {
+                disableHardwareLayers();
+            } else {
+                enableHardwareLayers(false);
+            }
 
             //在STATE_IDLE状态下判断，切换mSlideState的值。在ViewDragHelper的其他状态判断没有意义
             if (mDragHelper.getViewDragState() == ViewDragHelper.STATE_IDLE) {
-                if (mSlideOffset == 0) {
+                //top值取整后slideOffset与锚点会有误差，允许1像素以内的偏差
+                final float tolerance = mSlideRange > 0 ? 1.f / mSlideRange : 0.f;
+                final int snapIndex = DragMath.findSnapIndexAt(mSnapOffsets, mSlideOffset, tolerance);
+                if (snapIndex == 0) {
+                    mSnapIndex = -1;
                     if (mSlideState != SlideState.EXPANDED) {
                         updateObscuredViewVisibility();
                         mSlideState = SlideState.EXPANDED;
                         dispatchOnPanelExpanded(mSlideableView);
                     }
-                } else if (mSlideOffset == (float)anchoredTop/(float)mSlideRange) {
-                    if (mSlideState != SlideState.ANCHORED) {
+                } else if (snapIndex > 0 && snapIndex < mSnapOffsets.length - 1) {
+                    if (mSlideState != SlideState.ANCHORED || mSnapIndex != snapIndex) {
+                        mSnapIndex = snapIndex;
                         updateObscuredViewVisibility();
                         mSlideState = SlideState.ANCHORED;
                         dispatchOnPanelAnchored(mSlideableView);
                     }
                 } else if (mSlideState != SlideState.COLLAPSED) {
+                    mSnapIndex = -1;
                 	mSlideState = SlideState.COLLAPSED;
                     dispatchOnPanelCollapsed(mSlideableView);
                 }
+                if (mGestureTraceRecorder != null) {
+                    mGestureTraceRecorder.recordSlide(uptimeMillis(), mSlideOffset,
+                            mSlideState.ordinal());
+                }
             }
         }
 
@@ -1226,40 +3055,38 @@ public class SlidingUpPanelLayout extends ViewGroup {
         //当panel位置有偏移时，会回调此函数
         @Override
         public void onViewPositionChanged(View changedView, int left, int top, int dx, int dy) {
+            final float oldSlideOffset = mSlideOffset;
+            final int oldMainTranslation = mMainView != null ? (int) mMainView.getTranslationY() : 0;
             onPanelDragged(top);
-            invalidate();
+            //MOVEMENT_TRANSLATION下panel自身的移动只是render property的变化
+            if (isRedrawnOnPanelMove()) {
+                invalidatePanelMove(top - dy, top, oldSlideOffset, oldMainTranslation);
+            }
         }
 
         //当cancel或up事件触发时，会回调此函数，后二个参数记录触发时的事件轨迹速度
         @Override
         public void onViewReleased(View releasedChild, float xvel, float yvel) {
-            //保存滑动的最终位置y值
-        	int top = mIsSlidingUp
-                    ? getSlidingTop()
-                    : getSlidingTop() - mSlideRange;
-
-            //若设置了锚点，那么计算滑动最终位置时，考虑锚点的位置
-            if (mAnchorPoint != 0) {
-                int anchoredTop;
-                float anchorOffset;
-                if (mIsSlidingUp) {
-                    anchoredTop = (int)(mAnchorPoint*mSlideRange);
-                    anchorOffset = (float)anchoredTop/(float)mSlideRange;
-                } else {
-                    anchoredTop = mPanelHeight - (int)(mAnchorPoint*mSlideRange);
-                    anchorOffset = (float)(mPanelHeight - anchoredTop)/(float)mSlideRange;
-                }
-
-                if (yvel > 0 || (yvel == 0 && mSlideOffset >= (1f+anchorOffset)/2)) {
-                    top += mSlideRange;
-                } else if (yvel == 0 && mSlideOffset < (1f+anchorOffset)/2
-                                    && mSlideOffset >= anchorOffset/2) {
-                    top += mSlideRange * mAnchorPoint;
-                }
-
-            } else if (yvel > 0 || (yvel == 0 && mSlideOffset > 0.5f)) {
-                top += mSlideRange;
+            //计算滑动的最终位置y值，没有速度时停在最近的锚点
+            //有速度时，默认滑到滑动方向上的尽头，RELEASE_MODE_NEXT_SNAP下停在滑动方向上的下一个锚点
+            //RELEASE_MODE_PROJECTED下，停在按速度推算出的停止位置最近的锚点
+            //slideOffset增大的方向在向下展开时与y轴相反
+            final float offsetVelocity = mIsSlidingUp ? yvel : -yvel;
+            final float offset;
+            switch (mReleaseMode) {
+                case RELEASE_MODE_PROJECTED:
+                    offset = DragMath.computeProjectedReleaseOffset(mSnapOffsets, mSlideOffset,
+                            offsetVelocity, mReleaseDeceleration, mSlideRange);
+                    break;
+                case RELEASE_MODE_NEXT_SNAP:
+                    offset = DragMath.computeReleaseOffset(mSnapOffsets, mSlideOffset, offsetVelocity);
+                    break;
+                default:
+                    offset = DragMath.computeRangeEndReleaseOffset(mSnapOffsets, mSlideOffset,
+                            offsetVelocity);
+                    break;
             }
+            final int top = computeTopForOffset(offset);
 
             //计算好滑动的最终位置后，开始滑动view
             mDragHelper.settleCapturedViewAt(releasedChild.getLeft(), top);
@@ -1289,6 +3116,22 @@ public class SlidingUpPanelLayout extends ViewGroup {
         }
     }
 
+    /**
+     * COMPOSITING_MODE_SURFACE下的蒙层，只有纯色背景，alpha可以直接作为render property应用，不需要离屏缓冲
+     */
+    private static class ScrimView extends View {
+        int mColor;
+
+        ScrimView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean hasOverlappingRendering() {
+            return false;
+        }
+    }
+
     public static class LayoutParams extends ViewGroup.MarginLayoutParams {
         private static final int[] ATTRS = new int[] {
             android.R.attr.layout_weight
@@ -1339,6 +3182,7 @@ public class SlidingUpPanelLayout extends ViewGroup {
     static class SavedState extends BaseSavedState {
         //实例化需要保存的参数
     	SlideState mSlideState;
+        int mSnapIndex = -1;
 
         SavedState(Parcelable superState) {
             super(superState);
@@ -1351,12 +3195,14 @@ public class SlidingUpPanelLayout extends ViewGroup {
             } catch (IllegalArgumentException e) {
                 mSlideState = SlideState.COLLAPSED;
             }
+            mSnapIndex = in.readInt();
         }
 
         @Override
         public void writeToParcel(Parcel out, int flags) {
             super.writeToParcel(out, flags);
             out.writeString(mSlideState.toString());
+            out.writeInt(mSnapIndex);
         }
 
         public static final Parcelable.Creator<SavedState> CREATOR =
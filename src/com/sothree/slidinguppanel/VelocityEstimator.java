@@ -0,0 +1,187 @@
+package com.sothree.slidinguppanel;
+
+/**
+ * Estimates pointer velocity by a least squares line fit over the most recent samples.
+ *
+ * <p>Samples are kept in a fixed-size primitive ring buffer, so adding samples and computing
+ * the velocity never allocate. Like {@link DragMath}, nothing in here touches the framework,
+ * so recorded traces can be fed to it directly on a plain JVM.</p>
+ */
+public final class VelocityEstimator {
+
+    /**
+     * Default number of samples kept in the ring buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /**
+     * Default age of the oldest sample that still contributes to the fit, in milliseconds.
+     */
+    public static final int DEFAULT_HORIZON = 100; // ms
+
+    /**
+     * A gap between two consecutive samples longer than this means the pointer stopped
+     * and older samples no longer describe the current motion.
+     */
+    private static final int ASSUME_POINTER_STOPPED_TIME = 40; // ms
+
+    private final long[] mTimes;
+    private final float[] mX;
+    private final float[] mY;
+    private final int mHorizon;
+
+    // Index of the newest sample and number of valid samples
+    private int mHead = -1;
+    private int mCount;
+
+    private float mXVelocity;
+    private float mYVelocity;
+
+    public VelocityEstimator() {
+        this(DEFAULT_CAPACITY, DEFAULT_HORIZON);
+    }
+
+    /**
+     * @param capacity Number of samples kept, at least 2
+     * @param horizon Age of the oldest sample that still contributes to the fit, in milliseconds
+     */
+    public VelocityEstimator(int capacity, int horizon) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        mTimes = new long[capacity];
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mHorizon = horizon;
+    }
+
+    /**
+     * Drop all samples and the last computed velocity.
+     */
+    public void clear() {
+        mHead = -1;
+        mCount = 0;
+        mXVelocity = 0;
+        mYVelocity = 0;
+    }
+
+    /**
+     * @return Number of samples currently held
+     */
+    public int getSampleCount() {
+        return mCount;
+    }
+
+    /**
+     * @return Time of the newest sample in milliseconds, or 0 if there is none
+     */
+    public long getLastSampleTime() {
+        return mCount > 0 ? mTimes[mHead] : 0;
+    }
+
+    /**
+     * @return X coordinate of the newest sample, or 0 if there is none
+     */
+    public float getLastX() {
+        return mCount > 0 ? mX[mHead] : 0;
+    }
+
+    /**
+     * @return Y coordinate of the newest sample, or 0 if there is none
+     */
+    public float getLastY() {
+        return mCount > 0 ? mY[mHead] : 0;
+    }
+
+    /**
+     * Add a position sample. Samples must be added in non-decreasing time order; a sample
+     * older than the newest one is ignored.
+     *
+     * @param time Sample time in milliseconds
+     * @param x X coordinate of the pointer
+     * @param y Y coordinate of the pointer
+     */
+    public void addSample(long time, float x, float y) {
+        if (mCount > 0 && time < mTimes[mHead]) {
+            return;
+        }
+        mHead = (mHead + 1) % mTimes.length;
+        mTimes[mHead] = time;
+        mX[mHead] = x;
+        mY[mHead] = y;
+        if (mCount < mTimes.length) {
+            mCount++;
+        }
+    }
+
+    /**
+     * Compute the velocity at the newest sample. Read the result with {@link #getXVelocity()}
+     * and {@link #getYVelocity()}. Safe to call at any point of a gesture.
+     *
+     * @param units 1 for pixels per millisecond, 1000 for pixels per second
+     * @param maxVelocity Maximum magnitude of the result in the given units
+     */
+    public void computeCurrentVelocity(int units, float maxVelocity) {
+        mXVelocity = 0;
+        mYVelocity = 0;
+        if (mCount < 2) {
+            return;
+        }
+
+        final int capacity = mTimes.length;
+        final long newest = mTimes[mHead];
+
+        // Collect the window of samples going back from the newest one; times are taken
+        // relative to the newest sample to keep the sums well conditioned.
+        int n = 0;
+        float sumT = 0, sumX = 0, sumY = 0;
+        long previous = newest;
+        for (int i = 0; i < mCount; i++) {
+            final int index = (mHead - i + capacity) % capacity;
+            final long time = mTimes[index];
+            if (newest - time > mHorizon || previous - time > ASSUME_POINTER_STOPPED_TIME) {
+                break;
+            }
+            sumT += time - newest;
+            sumX += mX[index];
+            sumY += mY[index];
+            previous = time;
+            n++;
+        }
+        if (n < 2) {
+            return;
+        }
+
+        final float meanT = sumT / n;
+        final float meanX = sumX / n;
+        final float meanY = sumY / n;
+        float stt = 0, stx = 0, sty = 0;
+        for (int i = 0; i < n; i++) {
+            final int index = (mHead - i + capacity) % capacity;
+            final float dt = mTimes[index] - newest - meanT;
+            stt += dt * dt;
+            stx += dt * (mX[index] - meanX);
+            sty += dt * (mY[index] - meanY);
+        }
+        if (stt == 0) {
+            return;
+        }
+
+        mXVelocity = DragMath.clampMag(stx / stt * units, 0, maxVelocity);
+        mYVelocity = DragMath.clampMag(sty / stt * units, 0, maxVelocity);
+    }
+
+    /**
+     * @return X velocity from the last call to {@link #computeCurrentVelocity(int, float)}
+     */
+    public float getXVelocity() {
+        return mXVelocity;
+    }
+
+    /**
+     * @return Y velocity from the last call to {@link #computeCurrentVelocity(int, float)}
+     */
+    public float getYVelocity() {
+        return mYVelocity;
+    }
+}
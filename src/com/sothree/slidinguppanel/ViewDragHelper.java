@@ -26,10 +26,10 @@ import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.view.animation.AnimationUtils;
 import android.view.animation.Interpolator;
 
-import java.util.Arrays;
-
 /**
  * ViewDragHelper is a utility class for writing custom ViewGroups. It offers a number
  * of useful operations and state tracking for allowing a user to drag and reposition
@@ -100,10 +100,67 @@ public class ViewDragHelper {
      */
     public static final int DIRECTION_ALL = DIRECTION_HORIZONTAL | DIRECTION_VERTICAL;
 
+    /**
+     * Settle engine that animates over a computed duration with a quintic ease-out curve.
+     */
+    public static final int SETTLE_ENGINE_SCROLLER = 0;
+
+    /**
+     * Settle engine that animates with a critically damped spring. The release velocity
+     * carries into the motion, a settle can be retargeted mid-flight without a jump in
+     * position or velocity, and the settle ends as soon as the view is at rest.
+     */
+    public static final int SETTLE_ENGINE_SPRING = 1;
+
+    /**
+     * Velocity source that feeds every event to the platform {@link VelocityTracker}.
+     */
+    public static final int VELOCITY_SOURCE_PLATFORM = 0;
+
+    /**
+     * Velocity source that fits a line over recent samples, including the batched
+     * historical samples of each event, with a {@link VelocityEstimator}. It does not
+     * allocate and its velocity can be read at any point of a gesture.
+     */
+    public static final int VELOCITY_SOURCE_ESTIMATOR = 1;
+
+    /**
+     * Movement mode that moves the captured view vertically by offsetting its layout position.
+     */
+    public static final int MOVEMENT_LAYOUT = 0;
+
+    /**
+     * Movement mode that keeps the captured view's layout position and moves it vertically
+     * with translationY. Positions reported to the {@link Callback} and used for hit testing
+     * are the visual positions, including the translation.
+     */
+    public static final int MOVEMENT_TRANSLATION = 1;
+
     private static final int EDGE_SIZE = 20; // dp
 
-    private static final int BASE_SETTLE_DURATION = 256; // ms
-    private static final int MAX_SETTLE_DURATION = 600; // ms
+    // Pointer ids are tracked in an int bitmask
+    private static final int MAX_POINTERS = Integer.SIZE;
+
+    // Layout of mPointerMotion: initial x, initial y, last x, last y
+    private static final int MOTION_STRIDE = 4;
+    private static final int INITIAL_X = 0;
+    private static final int INITIAL_Y = 1;
+    private static final int LAST_X = 2;
+    private static final int LAST_Y = 3;
+
+    // Layout of mPointerEdges: edges initially touched, edge drags in progress, edges locked
+    private static final int EDGES_STRIDE = 3;
+    private static final int EDGES_TOUCHED = 0;
+    private static final int EDGES_IN_PROGRESS = 1;
+    private static final int EDGES_LOCKED = 2;
+
+    private static final float DEFAULT_REFRESH_RATE = 60f; // Hz
+    private static final int MAX_PREDICTION_TIME = 50; // ms
+    private static final int MAX_PREDICTION_DISTANCE = 24; // dp
+
+    private static final float DEFAULT_SPRING_STIFFNESS = 500f;
+    private static final float SPRING_REST_DISTANCE = 0.5f; // px
+    private static final int SPRING_REST_VELOCITY = 20; // dp per second
 
     // Current drag state; idle, dragging or settling
     private int mDragState;
@@ -113,23 +170,55 @@ public class ViewDragHelper {
 
     // Last known position/pointer tracking
     private int mActivePointerId = INVALID_POINTER;
-    private float[] mInitialMotionX;
-    private float[] mInitialMotionY;
-    private float[] mLastMotionX;
-    private float[] mLastMotionY;
-    private int[] mInitialEdgesTouched;
-    private int[] mEdgeDragsInProgress;
-    private int[] mEdgeDragsLocked;
+    // Per-pointer state is packed by pointer id with a fixed stride, preallocated for every
+    // id the mPointersDown bitmask can represent
+    private final float[] mPointerMotion = new float[MAX_POINTERS * MOTION_STRIDE];
+    private final int[] mPointerEdges = new int[MAX_POINTERS * EDGES_STRIDE];
     private int mPointersDown;
 
     private VelocityTracker mVelocityTracker;
+    private int mVelocitySource = VELOCITY_SOURCE_PLATFORM;
+    private final VelocityEstimator mVelocityEstimator = new VelocityEstimator();
+    private int mEstimatorPointerId = INVALID_POINTER;
+
+    // Touch prediction; mPredictedDy is how far the captured view currently sits
+    // ahead of the real pointer position
+    private boolean mTouchPredictionEnabled;
+    private int mPredictionTime;
+    private final int mMaxPredictionDistance;
+    private int mPredictedDy;
+
+    // Move coalescing; drags queued since the last frame are applied together
+    private boolean mMoveCoalescingEnabled;
+    private boolean mHasPendingDrag;
+    private boolean mFlushScheduled;
+    private int mPendingLeft;
+    private int mPendingTop;
+
+    private final Runnable mFlushPendingDragRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flushPendingDrag();
+        }
+    };
     private float mMaxVelocity;
     private float mMinVelocity;
 
     private int mEdgeSize;
     private int mTrackingEdges;
 
+    private int mMovementMode = MOVEMENT_LAYOUT;
+
     private ScrollerCompat mScroller;
+    private Clock mClock;
+    private int mSettleDuration;
+
+    private int mSettleEngine = SETTLE_ENGINE_SCROLLER;
+    private final CriticalSpring mSpringX = new CriticalSpring(DEFAULT_SPRING_STIFFNESS);
+    private final CriticalSpring mSpringY = new CriticalSpring(DEFAULT_SPRING_STIFFNESS);
+    private final float mSpringRestVelocity;
+    private boolean mSpringSettling;
 
     private final Callback mCallback;
 
@@ -320,13 +409,25 @@ public class ViewDragHelper {
         }
     }
 
+    /**
+     * A time source for settle animations. Supplying one through {@link #setClock(Clock)}
+     * makes every settle frame a pure function of the clock readings, which allows
+     * recorded gestures to be replayed deterministically.
+     */
+    public interface Clock {
+        /**
+         * @return The current time in milliseconds, on the same time base as
+         *         {@link MotionEvent#getEventTime()}
+         */
+        long uptimeMillis();
+    }
+
     /**
      * Interpolator defining the animation curve for mScroller
      */
     private static final Interpolator sInterpolator = new Interpolator() {
         public float getInterpolation(float t) {
-            t -= 1.0f;
-            return t * t * t * t * t + 1.0f;
+            return DragMath.quinticInterpolation(t);
         }
     };
 
@@ -388,9 +489,25 @@ public class ViewDragHelper {
         mTouchSlop = vc.getScaledTouchSlop();
         mMaxVelocity = vc.getScaledMaximumFlingVelocity();
         mMinVelocity = vc.getScaledMinimumFlingVelocity();
+        mSpringRestVelocity = SPRING_REST_VELOCITY * density;
+        mMaxPredictionDistance = (int) (MAX_PREDICTION_DISTANCE * density + 0.5f);
+        mPredictionTime = computeFrameIntervalMillis(context);
         mScroller = ScrollerCompat.create(context, sInterpolator);
     }
 
+    /**
+     * A view moved for an event is presented on the next vsync at the earliest, so one frame
+     * of the default display is the starting point for the prediction horizon.
+     */
+    private static int computeFrameIntervalMillis(Context context) {
+        final WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = wm != null ? wm.getDefaultDisplay().getRefreshRate() : 0f;
+        if (refreshRate < 10f) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        return Math.round(1000f / refreshRate);
+    }
+
     /**
      * Set the minimum velocity that will be detected as having a magnitude greater than zero
      * in pixels per second. Callback methods accepting a velocity will be clamped appropriately.
@@ -412,6 +529,31 @@ public class ViewDragHelper {
         return mMinVelocity;
     }
 
+    /**
+     * Set the time source used to compute settle animations. Passing null restores the
+     * platform animation clock. Any settle in progress is aborted.
+     *
+     * @param clock Clock to drive settles with, or null
+     */
+    public void setClock(Clock clock) {
+        if (clock == mClock) {
+            return;
+        }
+        abort();
+        mClock = clock;
+        final Context context = mParentView.getContext();
+        mScroller = clock != null ? new ClockedScrollerCompat(context, clock)
+                : ScrollerCompat.create(context, sInterpolator);
+    }
+
+    /**
+     * @return The time source set through {@link #setClock(Clock)}, or null if settles
+     *         use the platform animation clock
+     */
+    public Clock getClock() {
+        return mClock;
+    }
+
     /**
      * Retrieve the current drag state of this helper. This will return one of
      * {@link #STATE_IDLE}, {@link #STATE_DRAGGING} or {@link #STATE_SETTLING}.
@@ -421,6 +563,204 @@ public class ViewDragHelper {
         return mDragState;
     }
 
+    /**
+     * Select how settles are animated. Any settle in progress is aborted.
+     *
+     * @param engine {@link #SETTLE_ENGINE_SCROLLER} or {@link #SETTLE_ENGINE_SPRING}
+     */
+    public void setSettleEngine(int engine) {
+        if (engine != SETTLE_ENGINE_SCROLLER && engine != SETTLE_ENGINE_SPRING) {
+            throw new IllegalArgumentException("Unknown settle engine " + engine);
+        }
+        if (engine != mSettleEngine) {
+            abort();
+            mSettleEngine = engine;
+        }
+    }
+
+    /**
+     * @return The settle engine in use, {@link #SETTLE_ENGINE_SCROLLER} or
+     *         {@link #SETTLE_ENGINE_SPRING}
+     */
+    public int getSettleEngine() {
+        return mSettleEngine;
+    }
+
+    /**
+     * Select how the captured view is moved vertically. Any settle in progress is aborted.
+     *
+     * @param mode {@link #MOVEMENT_LAYOUT} or {@link #MOVEMENT_TRANSLATION}
+     */
+    public void setMovementMode(int mode) {
+        if (mode != MOVEMENT_LAYOUT && mode != MOVEMENT_TRANSLATION) {
+            throw new IllegalArgumentException("Unknown movement mode " + mode);
+        }
+        if (mode != mMovementMode) {
+            abort();
+            mMovementMode = mode;
+        }
+    }
+
+    /**
+     * @return The movement mode in use, {@link #MOVEMENT_LAYOUT} or
+     *         {@link #MOVEMENT_TRANSLATION}
+     */
+    public int getMovementMode() {
+        return mMovementMode;
+    }
+
+    /**
+     * Return the top of a child as seen by this helper: the layout top, plus its
+     * translationY in {@link #MOVEMENT_TRANSLATION} mode.
+     *
+     * @param view Child view of the parent
+     * @return Top edge position of the view in the parent's coordinate system
+     */
+    public int getViewTop(View view) {
+        if (mMovementMode == MOVEMENT_TRANSLATION) {
+            return view.getTop() + (int) view.getTranslationY();
+        }
+        return view.getTop();
+    }
+
+    private void offsetViewTop(View view, int dy) {
+        if (mMovementMode == MOVEMENT_TRANSLATION) {
+            view.setTranslationY(getViewTop(view) + dy - view.getTop());
+        } else {
+            view.offsetTopAndBottom(dy);
+        }
+    }
+
+    /**
+     * Select where release velocities come from.
+     *
+     * @param source {@link #VELOCITY_SOURCE_PLATFORM} or {@link #VELOCITY_SOURCE_ESTIMATOR}
+     */
+    public void setVelocitySource(int source) {
+        if (source != VELOCITY_SOURCE_PLATFORM && source != VELOCITY_SOURCE_ESTIMATOR) {
+            throw new IllegalArgumentException("Unknown velocity source " + source);
+        }
+        if (source != mVelocitySource) {
+            cancel();
+            mVelocitySource = source;
+        }
+    }
+
+    /**
+     * @return The velocity source in use, {@link #VELOCITY_SOURCE_PLATFORM} or
+     *         {@link #VELOCITY_SOURCE_ESTIMATOR}
+     */
+    public int getVelocitySource() {
+        return mVelocitySource;
+    }
+
+    /**
+     * Enable or disable touch prediction while dragging. When enabled, the captured view is
+     * moved vertically to where the pointer is expected to be when the frame is presented,
+     * extrapolated from recent samples, instead of where the latest event reported it.
+     * The extrapolation is bounded and is recomputed from the real position on every event,
+     * so it never accumulates and never pushes the view past its clamped range.
+     *
+     * @param enabled true to enable touch prediction
+     */
+    public void setTouchPredictionEnabled(boolean enabled) {
+        mTouchPredictionEnabled = enabled;
+    }
+
+    /**
+     * @return true if touch prediction is enabled
+     */
+    public boolean isTouchPredictionEnabled() {
+        return mTouchPredictionEnabled;
+    }
+
+    /**
+     * Set how far ahead of the latest event touch prediction extrapolates. This should
+     * roughly match the input-to-display latency of the device. Defaults to one frame
+     * interval of the default display.
+     *
+     * @param predictionTime Prediction time in milliseconds, clamped to [0, 50]
+     */
+    public void setTouchPredictionTime(int predictionTime) {
+        mPredictionTime = Math.max(0, Math.min(predictionTime, MAX_PREDICTION_TIME));
+    }
+
+    /**
+     * @return Touch prediction time in milliseconds
+     */
+    public int getTouchPredictionTime() {
+        return mPredictionTime;
+    }
+
+    /**
+     * Enable or disable move coalescing while dragging. When enabled, each ACTION_MOVE only
+     * updates the target position and the velocity samples; the captured view is moved and
+     * {@link Callback#onViewPositionChanged(View, int, int, int, int)} is called once per
+     * animation frame. Pending movement is always applied before the view is released.
+     *
+     * @param enabled true to coalesce moves to one position update per frame
+     */
+    public void setMoveCoalescingEnabled(boolean enabled) {
+        if (!enabled) {
+            flushPendingDrag();
+        }
+        mMoveCoalescingEnabled = enabled;
+    }
+
+    /**
+     * @return true if moves are coalesced to one position update per frame
+     */
+    public boolean isMoveCoalescingEnabled() {
+        return mMoveCoalescingEnabled;
+    }
+
+    /**
+     * Apply movement queued by move coalescing right away instead of waiting for the next
+     * animation frame. Does nothing if no movement is pending.
+     */
+    public void flushPendingDrag() {
+        if (mFlushScheduled) {
+            mFlushScheduled = false;
+            mParentView.removeCallbacks(mFlushPendingDragRunnable);
+        }
+        if (!mHasPendingDrag) {
+            return;
+        }
+        mHasPendingDrag = false;
+        if (mCapturedView == null || mDragState != STATE_DRAGGING) {
+            return;
+        }
+        final int dx = mPendingLeft - mCapturedView.getLeft();
+        final int dy = mPendingTop - getViewTop(mCapturedView);
+        dragTo(mPendingLeft, mPendingTop, dx, dy);
+    }
+
+    /**
+     * Set the stiffness of the spring used by {@link #SETTLE_ENGINE_SPRING}.
+     * Higher values settle faster.
+     *
+     * @param stiffness Spring stiffness for a unit mass, must be positive
+     */
+    public void setSpringStiffness(float stiffness) {
+        if (stiffness <= 0) {
+            throw new IllegalArgumentException("Spring stiffness must be positive");
+        }
+        mSpringX.setStiffness(stiffness);
+        mSpringY.setStiffness(stiffness);
+    }
+
+    /**
+     * Return the duration planned for the most recent settle started by
+     * {@link #smoothSlideViewTo(View, int, int)} or {@link #settleCapturedViewAt(int, int)}.
+     * Spring settles report the estimated time until the spring comes to rest, measured from
+     * the start or the latest retarget.
+     *
+     * @return Planned settle duration in milliseconds
+     */
+    public int getSettleDuration() {
+        return mSettleDuration;
+    }
+
     /**
      * Enable edge tracking for the selected edges of the parent view.
      * The callback's {@link Callback#onEdgeTouched(int, int)} and
@@ -462,6 +802,9 @@ public class ViewDragHelper {
                     "of the ViewDragHelper's tracked parent view (" + mParentView + ")");
         }
 
+        if (mDragState != STATE_DRAGGING) {
+            mPredictedDy = 0;
+        }
         mCapturedView = childView;
         mActivePointerId = activePointerId;
         mCallback.onViewCaptured(childView, activePointerId);
@@ -495,6 +838,7 @@ public class ViewDragHelper {
      * {@link #processTouchEvent(android.view.MotionEvent)} receiving an ACTION_CANCEL event.
      */
     public void cancel() {
+        flushPendingDrag();
         mActivePointerId = INVALID_POINTER;
         clearMotionHistory();
 
@@ -502,6 +846,9 @@ public class ViewDragHelper {
             mVelocityTracker.recycle();
             mVelocityTracker = null;
         }
+        mVelocityEstimator.clear();
+        mEstimatorPointerId = INVALID_POINTER;
+        mPredictedDy = 0;
     }
 
     /**
@@ -511,11 +858,22 @@ public class ViewDragHelper {
     public void abort() {
         cancel();
         if (mDragState == STATE_SETTLING) {
-            final int oldX = mScroller.getCurrX();
-            final int oldY = mScroller.getCurrY();
-            mScroller.abortAnimation();
-            final int newX = mScroller.getCurrX();
-            final int newY = mScroller.getCurrY();
+            final int oldX;
+            final int oldY;
+            final int newX;
+            final int newY;
+            if (mSpringSettling) {
+                oldX = Math.round(mSpringX.getPosition());
+                oldY = Math.round(mSpringY.getPosition());
+                newX = (int) mSpringX.getTarget();
+                newY = (int) mSpringY.getTarget();
+            } else {
+                oldX = mScroller.getCurrX();
+                oldY = mScroller.getCurrY();
+                mScroller.abortAnimation();
+                newX = mScroller.getCurrX();
+                newY = mScroller.getCurrY();
+            }
             mCallback.onViewPositionChanged(mCapturedView, newX, newY, newX - oldX, newY - oldY);
         }
         setDragState(STATE_IDLE);
@@ -560,8 +918,7 @@ public class ViewDragHelper {
         }
 
         return forceSettleCapturedViewAt(finalLeft, finalTop,
-                (int) VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                (int) VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId));
+                (int) getXVelocity(), (int) getYVelocity());
     }
 
     /**
@@ -574,8 +931,12 @@ public class ViewDragHelper {
      * @return true if animation should continue through {@link #continueSettling(boolean)} calls
      */
     private boolean forceSettleCapturedViewAt(int finalLeft, int finalTop, int xvel, int yvel) {
+        if (mSettleEngine == SETTLE_ENGINE_SPRING) {
+            return springSettleCapturedViewAt(finalLeft, finalTop, xvel, yvel);
+        }
+
         final int startLeft = mCapturedView.getLeft();
-        final int startTop = mCapturedView.getTop();
+        final int startTop = getViewTop(mCapturedView);
         final int dx = finalLeft - startLeft;
         final int dy = finalTop - startTop;
 
@@ -588,92 +949,68 @@ public class ViewDragHelper {
 
         final int duration = computeSettleDuration(mCapturedView, dx, dy, xvel, yvel);
         mScroller.startScroll(startLeft, startTop, dx, dy, duration);
+        mSettleDuration = duration;
 
         setDragState(STATE_SETTLING);
         return true;
     }
 
-    private int computeSettleDuration(View child, int dx, int dy, int xvel, int yvel) {
-        xvel = clampMag(xvel, (int) mMinVelocity, (int) mMaxVelocity);
-        yvel = clampMag(yvel, (int) mMinVelocity, (int) mMaxVelocity);
-        final int absDx = Math.abs(dx);
-        final int absDy = Math.abs(dy);
-        final int absXVel = Math.abs(xvel);
-        final int absYVel = Math.abs(yvel);
-        final int addedVel = absXVel + absYVel;
-        final int addedDistance = absDx + absDy;
-
-        final float xweight = xvel != 0 ? (float) absXVel / addedVel :
-                (float) absDx / addedDistance;
-        final float yweight = yvel != 0 ? (float) absYVel / addedVel :
-                (float) absDy / addedDistance;
-
-        int xduration = computeAxisDuration(dx, xvel, mCallback.getViewHorizontalDragRange(child));
-        int yduration = computeAxisDuration(dy, yvel, mCallback.getViewVerticalDragRange(child));
-
-        return (int) (xduration * xweight + yduration * yweight);
-    }
-
-    private int computeAxisDuration(int delta, int velocity, int motionRange) {
-        if (delta == 0) {
-            return 0;
-        }
-
-        final int width = mParentView.getWidth();
-        final int halfWidth = width / 2;
-        final float distanceRatio = Math.min(1f, (float) Math.abs(delta) / width);
-        final float distance = halfWidth + halfWidth *
-                distanceInfluenceForSnapDuration(distanceRatio);
-
-        int duration;
-        velocity = Math.abs(velocity);
-        if (velocity > 0) {
-            duration = 4 * Math.round(1000 * Math.abs(distance / velocity));
-        } else {
-            final float range = (float) Math.abs(delta) / motionRange;
-            duration = (int) ((range + 1) * BASE_SETTLE_DURATION);
-        }
-        return Math.min(duration, MAX_SETTLE_DURATION);
-    }
-
     /**
-     * Clamp the magnitude of value for absMin and absMax.
-     * If the value is below the minimum, it will be clamped to zero.
-     * If the value is above the maximum, it will be clamped to the maximum.
+     * Settle the captured view at the given (left, top) position with the spring engine.
+     * If a spring settle is already running it is retargeted, keeping the current position
+     * and velocity; otherwise the spring starts from the view's position and the given velocity.
      *
-     * @param value Value to clamp
-     * @param absMin Absolute value of the minimum significant value to return
-     * @param absMax Absolute value of the maximum value to return
-     * @return The clamped value with the same sign as <code>value</code>
+     * @param finalLeft Target left position for the captured view
+     * @param finalTop Target top position for the captured view
+     * @param xvel Horizontal velocity
+     * @param yvel Vertical velocity
+     * @return true if animation should continue through {@link #continueSettling(boolean)} calls
      */
-    private int clampMag(int value, int absMin, int absMax) {
-        final int absValue = Math.abs(value);
-        if (absValue < absMin) return 0;
-        if (absValue > absMax) return value > 0 ? absMax : -absMax;
-        return value;
+    private boolean springSettleCapturedViewAt(int finalLeft, int finalTop, int xvel, int yvel) {
+        final long now = settleTimeMillis();
+        if (mSpringSettling && mDragState == STATE_SETTLING) {
+            mSpringX.retarget(now, finalLeft);
+            mSpringY.retarget(now, finalTop);
+        } else {
+            final int startLeft = mCapturedView.getLeft();
+            final int startTop = getViewTop(mCapturedView);
+            if (startLeft == finalLeft && startTop == finalTop) {
+                // Nothing to do. Send callbacks, be done.
+                setDragState(STATE_IDLE);
+                return false;
+            }
+
+            // Don't let velocity push the view along an axis it can't be dragged on.
+            if (mCallback.getViewHorizontalDragRange(mCapturedView) == 0) {
+                xvel = 0;
+            }
+            if (mCallback.getViewVerticalDragRange(mCapturedView) == 0) {
+                yvel = 0;
+            }
+            mSpringX.start(now, startLeft, DragMath.clampMag(xvel, 0, (int) mMaxVelocity),
+                    finalLeft);
+            mSpringY.start(now, startTop, DragMath.clampMag(yvel, 0, (int) mMaxVelocity),
+                    finalTop);
+        }
+
+        mSpringSettling = true;
+        mSettleDuration = Math.max(
+                mSpringX.estimateSettleTime(SPRING_REST_DISTANCE, mSpringRestVelocity),
+                mSpringY.estimateSettleTime(SPRING_REST_DISTANCE, mSpringRestVelocity));
+        setDragState(STATE_SETTLING);
+        return true;
     }
 
-    /**
-     * Clamp the magnitude of value for absMin and absMax.
-     * If the value is below the minimum, it will be clamped to zero.
-     * If the value is above the maximum, it will be clamped to the maximum.
-     *
-     * @param value Value to clamp
-     * @param absMin Absolute value of the minimum significant value to return
-     * @param absMax Absolute value of the maximum value to return
-     * @return The clamped value with the same sign as <code>value</code>
-     */
-    private float clampMag(float value, float absMin, float absMax) {
-        final float absValue = Math.abs(value);
-        if (absValue < absMin) return 0;
-        if (absValue > absMax) return value > 0 ? absMax : -absMax;
-        return value;
+    private long settleTimeMillis() {
+        return mClock != null ? mClock.uptimeMillis() : AnimationUtils.currentAnimationTimeMillis();
     }
 
-    private float distanceInfluenceForSnapDuration(float f) {
-        f -= 0.5f; // center the values about 0.
-        f *= 0.3f * Math.PI / 2.0f;
-        return (float) Math.sin(f);
+    private int computeSettleDuration(View child, int dx, int dy, int xvel, int yvel) {
+        return DragMath.computeSettleDuration(dx, dy, xvel, yvel,
+                (int) mMinVelocity, (int) mMaxVelocity,
+                mCallback.getViewHorizontalDragRange(child),
+                mCallback.getViewVerticalDragRange(child),
+                mParentView.getWidth());
     }
 
     /**
@@ -692,9 +1029,8 @@ public class ViewDragHelper {
                     "Callback#onViewReleased");
         }
 
-        mScroller.fling(mCapturedView.getLeft(), mCapturedView.getTop(),
-                (int) VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                (int) VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId),
+        mScroller.fling(mCapturedView.getLeft(), getViewTop(mCapturedView),
+                (int) getXVelocity(), (int) getYVelocity(),
                 minLeft, maxLeft, minTop, maxTop);
 
         setDragState(STATE_SETTLING);
@@ -713,24 +1049,38 @@ public class ViewDragHelper {
      */
     public boolean continueSettling(boolean deferCallbacks) {
         if (mDragState == STATE_SETTLING) {
-            boolean keepGoing = mScroller.computeScrollOffset();
-            final int x = mScroller.getCurrX();
-            final int y = mScroller.getCurrY();
+            boolean keepGoing;
+            final int x;
+            final int y;
+            if (mSpringSettling) {
+                final long now = settleTimeMillis();
+                mSpringX.update(now);
+                mSpringY.update(now);
+                keepGoing = !mSpringX.isAtRest(SPRING_REST_DISTANCE, mSpringRestVelocity)
+                        || !mSpringY.isAtRest(SPRING_REST_DISTANCE, mSpringRestVelocity);
+                x = keepGoing ? Math.round(mSpringX.getPosition()) : (int) mSpringX.getTarget();
+                y = keepGoing ? Math.round(mSpringY.getPosition()) : (int) mSpringY.getTarget();
+            } else {
+                keepGoing = mScroller.computeScrollOffset();
+                x = mScroller.getCurrX();
+                y = mScroller.getCurrY();
+            }
             final int dx = x - mCapturedView.getLeft();
-            final int dy = y - mCapturedView.getTop();
+            final int dy = y - getViewTop(mCapturedView);
 
             if (dx != 0) {
                 mCapturedView.offsetLeftAndRight(dx);
             }
             if (dy != 0) {
-                mCapturedView.offsetTopAndBottom(dy);
+                offsetViewTop(mCapturedView, dy);
             }
 
             if (dx != 0 || dy != 0) {
                 mCallback.onViewPositionChanged(mCapturedView, x, y, dx, dy);
             }
 
-            if (keepGoing && x == mScroller.getFinalX() && y == mScroller.getFinalY()) {
+            if (!mSpringSettling && keepGoing &&
+                    x == mScroller.getFinalX() && y == mScroller.getFinalY()) {
                 // Close enough. The interpolator/scroller might think we're still moving
                 // but the user sure doesn't.
                 mScroller.abortAnimation();
@@ -756,6 +1106,8 @@ public class ViewDragHelper {
      * or {@link #flingCapturedView(int, int, int, int)}.
      */
     private void dispatchViewReleased(float xvel, float yvel) {
+        flushPendingDrag();
+        retractPrediction();
         mReleaseInProgress = true;
         mCallback.onViewReleased(mCapturedView, xvel, yvel);
         mReleaseInProgress = false;
@@ -767,68 +1119,55 @@ public class ViewDragHelper {
     }
 
     private void clearMotionHistory() {
-        if (mInitialMotionX == null) {
-            return;
+        // Only pointers that are down can hold state worth clearing
+        for (int bits = mPointersDown; bits != 0; bits &= bits - 1) {
+            clearPointerState(Integer.numberOfTrailingZeros(bits));
         }
-        Arrays.fill(mInitialMotionX, 0);
-        Arrays.fill(mInitialMotionY, 0);
-        Arrays.fill(mLastMotionX, 0);
-        Arrays.fill(mLastMotionY, 0);
-        Arrays.fill(mInitialEdgesTouched, 0);
-        Arrays.fill(mEdgeDragsInProgress, 0);
-        Arrays.fill(mEdgeDragsLocked, 0);
         mPointersDown = 0;
     }
 
     private void clearMotionHistory(int pointerId) {
-        if (mInitialMotionX == null) {
-            return;
-        }
-        mInitialMotionX[pointerId] = 0;
-        mInitialMotionY[pointerId] = 0;
-        mLastMotionX[pointerId] = 0;
-        mLastMotionY[pointerId] = 0;
-        mInitialEdgesTouched[pointerId] = 0;
-        mEdgeDragsInProgress[pointerId] = 0;
-        mEdgeDragsLocked[pointerId] = 0;
+        clearPointerState(pointerId);
         mPointersDown &= ~(1 << pointerId);
     }
 
-    private void ensureMotionHistorySizeForId(int pointerId) {
-        if (mInitialMotionX == null || mInitialMotionX.length <= pointerId) {
-            float[] imx = new float[pointerId + 1];
-            float[] imy = new float[pointerId + 1];
-            float[] lmx = new float[pointerId + 1];
-            float[] lmy = new float[pointerId + 1];
-            int[] iit = new int[pointerId + 1];
-            int[] edip = new int[pointerId + 1];
-            int[] edl = new int[pointerId + 1];
-
-            if (mInitialMotionX != null) {
-                System.arraycopy(mInitialMotionX, 0, imx, 0, mInitialMotionX.length);
-                System.arraycopy(mInitialMotionY, 0, imy, 0, mInitialMotionY.length);
-                System.arraycopy(mLastMotionX, 0, lmx, 0, mLastMotionX.length);
-                System.arraycopy(mLastMotionY, 0, lmy, 0, mLastMotionY.length);
-                System.arraycopy(mInitialEdgesTouched, 0, iit, 0, mInitialEdgesTouched.length);
-                System.arraycopy(mEdgeDragsInProgress, 0, edip, 0, mEdgeDragsInProgress.length);
-                System.arraycopy(mEdgeDragsLocked, 0, edl, 0, mEdgeDragsLocked.length);
-            }
+    private void clearPointerState(int pointerId) {
+        final int motion = pointerId * MOTION_STRIDE;
+        mPointerMotion[motion + INITIAL_X] = 0;
+        mPointerMotion[motion + INITIAL_Y] = 0;
+        mPointerMotion[motion + LAST_X] = 0;
+        mPointerMotion[motion + LAST_Y] = 0;
+        final int edges = pointerId * EDGES_STRIDE;
+        mPointerEdges[edges + EDGES_TOUCHED] = 0;
+        mPointerEdges[edges + EDGES_IN_PROGRESS] = 0;
+        mPointerEdges[edges + EDGES_LOCKED] = 0;
+    }
 
-            mInitialMotionX = imx;
-            mInitialMotionY = imy;
-            mLastMotionX = lmx;
-            mLastMotionY = lmy;
-            mInitialEdgesTouched = iit;
-            mEdgeDragsInProgress = edip;
-            mEdgeDragsLocked = edl;
-        }
+    private float getInitialMotionX(int pointerId) {
+        return mPointerMotion[pointerId * MOTION_STRIDE + INITIAL_X];
+    }
+
+    private float getInitialMotionY(int pointerId) {
+        return mPointerMotion[pointerId * MOTION_STRIDE + INITIAL_Y];
+    }
+
+    private float getLastMotionX(int pointerId) {
+        return mPointerMotion[pointerId * MOTION_STRIDE + LAST_X];
+    }
+
+    private float getLastMotionY(int pointerId) {
+        return mPointerMotion[pointerId * MOTION_STRIDE + LAST_Y];
+    }
+
+    private int getInitialEdgesTouched(int pointerId) {
+        return mPointerEdges[pointerId * EDGES_STRIDE + EDGES_TOUCHED];
     }
 
     private void saveInitialMotion(float x, float y, int pointerId) {
-        ensureMotionHistorySizeForId(pointerId);
-        mInitialMotionX[pointerId] = mLastMotionX[pointerId] = x;
-        mInitialMotionY[pointerId] = mLastMotionY[pointerId] = y;
-        mInitialEdgesTouched[pointerId] = getEdgesTouched((int) x, (int) y);
+        final int motion = pointerId * MOTION_STRIDE;
+        mPointerMotion[motion + INITIAL_X] = mPointerMotion[motion + LAST_X] = x;
+        mPointerMotion[motion + INITIAL_Y] = mPointerMotion[motion + LAST_Y] = y;
+        mPointerEdges[pointerId * EDGES_STRIDE + EDGES_TOUCHED] = getEdgesTouched((int) x, (int) y);
         mPointersDown |= 1 << pointerId;
     }
 
@@ -838,8 +1177,9 @@ public class ViewDragHelper {
             final int pointerId = MotionEventCompat.getPointerId(ev, i);
             final float x = MotionEventCompat.getX(ev, i);
             final float y = MotionEventCompat.getY(ev, i);
-            mLastMotionX[pointerId] = x;
-            mLastMotionY[pointerId] = y;
+            final int motion = pointerId * MOTION_STRIDE;
+            mPointerMotion[motion + LAST_X] = x;
+            mPointerMotion[motion + LAST_Y] = y;
         }
     }
 
@@ -863,6 +1203,9 @@ public class ViewDragHelper {
     void setDragState(int state) {
         if (mDragState != state) {
             mDragState = state;
+            if (state != STATE_SETTLING) {
+                mSpringSettling = false;
+            }
             mCallback.onViewDragStateChanged(state);
             if (state == STATE_IDLE) {
                 mCapturedView = null;
@@ -936,6 +1279,15 @@ public class ViewDragHelper {
      * @return true if the parent view should return true from onInterceptTouchEvent
      */
     public boolean shouldInterceptTouchEvent(MotionEvent ev) {
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_DRAG_INTERCEPT);
+        try {
+            return interceptTouchEvent(ev);
+        } finally {
+            PanelTrace.endSection(traced);
+        }
+    }
+
+    private boolean interceptTouchEvent(MotionEvent ev) {
         final int action = MotionEventCompat.getActionMasked(ev);
         final int actionIndex = MotionEventCompat.getActionIndex(ev);
 
@@ -945,10 +1297,7 @@ public class ViewDragHelper {
             cancel();
         }
 
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
-        }
-        mVelocityTracker.addMovement(ev);
+        addMovement(ev);
 
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
@@ -964,7 +1313,7 @@ public class ViewDragHelper {
                     tryCaptureViewForDrag(toCapture, pointerId);
                 }
 
-                final int edgesTouched = mInitialEdgesTouched[pointerId];
+                final int edgesTouched = getInitialEdgesTouched(pointerId);
                 if ((edgesTouched & mTrackingEdges) != 0) {
                     mCallback.onEdgeTouched(edgesTouched & mTrackingEdges, pointerId);
                 }
@@ -980,7 +1329,7 @@ public class ViewDragHelper {
 
                 // A ViewDragHelper can only manipulate one view at a time.
                 if (mDragState == STATE_IDLE) {
-                    final int edgesTouched = mInitialEdgesTouched[pointerId];
+                    final int edgesTouched = getInitialEdgesTouched(pointerId);
                     if ((edgesTouched & mTrackingEdges) != 0) {
                         mCallback.onEdgeTouched(edgesTouched & mTrackingEdges, pointerId);
                     }
@@ -1001,8 +1350,8 @@ public class ViewDragHelper {
                     final int pointerId = MotionEventCompat.getPointerId(ev, i);
                     final float x = MotionEventCompat.getX(ev, i);
                     final float y = MotionEventCompat.getY(ev, i);
-                    final float dx = x - mInitialMotionX[pointerId];
-                    final float dy = y - mInitialMotionY[pointerId];
+                    final float dx = x - getInitialMotionX(pointerId);
+                    final float dy = y - getInitialMotionY(pointerId);
 
                     reportNewEdgeDrags(dx, dy, pointerId);
                     if (mDragState == STATE_DRAGGING) {
@@ -1043,6 +1392,15 @@ public class ViewDragHelper {
      * @param ev The touch event received by the parent view
      */
     public void processTouchEvent(MotionEvent ev) {
+        final boolean traced = PanelTrace.beginSection(PanelTrace.SECTION_DRAG_PROCESS);
+        try {
+            handleTouchEvent(ev);
+        } finally {
+            PanelTrace.endSection(traced);
+        }
+    }
+
+    private void handleTouchEvent(MotionEvent ev) {
         final int action = MotionEventCompat.getActionMasked(ev);
         final int actionIndex = MotionEventCompat.getActionIndex(ev);
 
@@ -1052,10 +1410,7 @@ public class ViewDragHelper {
             cancel();
         }
 
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
-        }
-        mVelocityTracker.addMovement(ev);
+        addMovement(ev);
 
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
@@ -1071,7 +1426,7 @@ public class ViewDragHelper {
                 // Start immediately if possible.
                 tryCaptureViewForDrag(toCapture, pointerId);
 
-                final int edgesTouched = mInitialEdgesTouched[pointerId];
+                final int edgesTouched = getInitialEdgesTouched(pointerId);
                 if ((edgesTouched & mTrackingEdges) != 0) {
                     mCallback.onEdgeTouched(edgesTouched & mTrackingEdges, pointerId);
                 }
@@ -1092,7 +1447,7 @@ public class ViewDragHelper {
                     final View toCapture = findTopChildUnder((int) x, (int) y);
                     tryCaptureViewForDrag(toCapture, pointerId);
 
-                    final int edgesTouched = mInitialEdgesTouched[pointerId];
+                    final int edgesTouched = getInitialEdgesTouched(pointerId);
                     if ((edgesTouched & mTrackingEdges) != 0) {
                         mCallback.onEdgeTouched(edgesTouched & mTrackingEdges, pointerId);
                     }
@@ -1111,10 +1466,19 @@ public class ViewDragHelper {
                     final int index = MotionEventCompat.findPointerIndex(ev, mActivePointerId);
                     final float x = MotionEventCompat.getX(ev, index);
                     final float y = MotionEventCompat.getY(ev, index);
-                    final int idx = (int) (x - mLastMotionX[mActivePointerId]);
-                    final int idy = (int) (y - mLastMotionY[mActivePointerId]);
-
-                    dragTo(mCapturedView.getLeft() + idx, mCapturedView.getTop() + idy, idx, idy);
+                    final int idx = (int) (x - getLastMotionX(mActivePointerId));
+                    final int idy = (int) (y - getLastMotionY(mActivePointerId));
+
+                    final int oldLeft = mHasPendingDrag ? mPendingLeft : mCapturedView.getLeft();
+                    final int oldTop = mHasPendingDrag ? mPendingTop : getViewTop(mCapturedView);
+                    final int top = mTouchPredictionEnabled
+                            ? predictTop(oldTop + idy, idy) : oldTop + idy;
+                    final int dy = top - oldTop;
+                    if (mMoveCoalescingEnabled) {
+                        queueDragTo(oldLeft, oldTop, oldLeft + idx, top, idx, dy);
+                    } else {
+                        dragTo(oldLeft + idx, top, idx, dy);
+                    }
 
                     saveLastMotion(ev);
                 } else {
@@ -1124,8 +1488,8 @@ public class ViewDragHelper {
                         final int pointerId = MotionEventCompat.getPointerId(ev, i);
                         final float x = MotionEventCompat.getX(ev, i);
                         final float y = MotionEventCompat.getY(ev, i);
-                        final float dx = x - mInitialMotionX[pointerId];
-                        final float dy = y - mInitialMotionY[pointerId];
+                        final float dx = x - getInitialMotionX(pointerId);
+                        final float dy = y - getInitialMotionY(pointerId);
 
                         reportNewEdgeDrags(dx, dy, pointerId);
                         if (mDragState == STATE_DRAGGING) {
@@ -1209,7 +1573,7 @@ public class ViewDragHelper {
         }
 
         if (dragsStarted != 0) {
-            mEdgeDragsInProgress[pointerId] |= dragsStarted;
+            mPointerEdges[pointerId * EDGES_STRIDE + EDGES_IN_PROGRESS] |= dragsStarted;
             mCallback.onEdgeDragStarted(dragsStarted, pointerId);
         }
     }
@@ -1218,17 +1582,19 @@ public class ViewDragHelper {
         final float absDelta = Math.abs(delta);
         final float absODelta = Math.abs(odelta);
 
-        if ((mInitialEdgesTouched[pointerId] & edge) != edge  || (mTrackingEdges & edge) == 0 ||
-                (mEdgeDragsLocked[pointerId] & edge) == edge ||
-                (mEdgeDragsInProgress[pointerId] & edge) == edge ||
+        final int edges = pointerId * EDGES_STRIDE;
+
+        if ((mPointerEdges[edges + EDGES_TOUCHED] & edge) != edge  || (mTrackingEdges & edge) == 0 ||
+                (mPointerEdges[edges + EDGES_LOCKED] & edge) == edge ||
+                (mPointerEdges[edges + EDGES_IN_PROGRESS] & edge) == edge ||
                 (absDelta <= mTouchSlop && absODelta <= mTouchSlop)) {
             return false;
         }
         if (absDelta < absODelta * 0.5f && mCallback.onEdgeLock(edge)) {
-            mEdgeDragsLocked[pointerId] |= edge;
+            mPointerEdges[edges + EDGES_LOCKED] |= edge;
             return false;
         }
-        return (mEdgeDragsInProgress[pointerId] & edge) == 0 && absDelta > mTouchSlop;
+        return (mPointerEdges[edges + EDGES_IN_PROGRESS] & edge) == 0 && absDelta > mTouchSlop;
     }
 
     /**
@@ -1273,9 +1639,8 @@ public class ViewDragHelper {
      * @return true if the slop threshold has been crossed, false otherwise
      */
     public boolean checkTouchSlop(int directions) {
-        final int count = mInitialMotionX.length;
-        for (int i = 0; i < count; i++) {
-            if (checkTouchSlop(directions, i)) {
+        for (int bits = mPointersDown; bits != 0; bits &= bits - 1) {
+            if (checkTouchSlop(directions, Integer.numberOfTrailingZeros(bits))) {
                 return true;
             }
         }
@@ -1305,8 +1670,8 @@ public class ViewDragHelper {
         final boolean checkHorizontal = (directions & DIRECTION_HORIZONTAL) == DIRECTION_HORIZONTAL;
         final boolean checkVertical = (directions & DIRECTION_VERTICAL) == DIRECTION_VERTICAL;
 
-        final float dx = mLastMotionX[pointerId] - mInitialMotionX[pointerId];
-        final float dy = mLastMotionY[pointerId] - mInitialMotionY[pointerId];
+        final float dx = getLastMotionX(pointerId) - getInitialMotionX(pointerId);
+        final float dy = getLastMotionY(pointerId) - getInitialMotionY(pointerId);
 
         if (checkHorizontal && checkVertical) {
             return dx * dx + dy * dy > mTouchSlop * mTouchSlop;
@@ -1328,9 +1693,8 @@ public class ViewDragHelper {
      * @return true if any of the edges specified were initially touched in the current gesture
      */
     public boolean isEdgeTouched(int edges) {
-        final int count = mInitialEdgesTouched.length;
-        for (int i = 0; i < count; i++) {
-            if (isEdgeTouched(edges, i)) {
+        for (int bits = mPointersDown; bits != 0; bits &= bits - 1) {
+            if (isEdgeTouched(edges, Integer.numberOfTrailingZeros(bits))) {
                 return true;
             }
         }
@@ -1348,32 +1712,137 @@ public class ViewDragHelper {
      * @return true if any of the edges specified were initially touched in the current gesture
      */
     public boolean isEdgeTouched(int edges, int pointerId) {
-        return isPointerDown(pointerId) && (mInitialEdgesTouched[pointerId] & edges) != 0;
+        return isPointerDown(pointerId) && (getInitialEdgesTouched(pointerId) & edges) != 0;
+    }
+
+    /**
+     * Apply touch prediction to a drag target.
+     *
+     * @param top Target top following the pointer delta from the currently drawn position
+     * @param dy Pointer delta along the Y axis since the last event
+     * @return Target top extrapolated to the expected presentation time
+     */
+    private int predictTop(int top, int dy) {
+        // Drop the prediction applied for the previous event so that the real pointer
+        // position is the base, then extrapolate a bounded distance from it.
+        final int realTop = mCallback.clampViewPositionVertical(mCapturedView,
+                top - mPredictedDy, dy);
+        mVelocityEstimator.computeCurrentVelocity(1000, mMaxVelocity);
+        final int lead = (int) DragMath.clampMag(
+                mVelocityEstimator.getYVelocity() * mPredictionTime / 1000f,
+                0, mMaxPredictionDistance);
+        final int predictedTop = mCallback.clampViewPositionVertical(mCapturedView,
+                realTop + lead, lead);
+        mPredictedDy = predictedTop - realTop;
+        return predictedTop;
+    }
+
+    /**
+     * Move the captured view back from its predicted position to the real pointer position,
+     * so that a release settles from where the finger actually lifted.
+     */
+    private void retractPrediction() {
+        if (mPredictedDy == 0 || mCapturedView == null) {
+            mPredictedDy = 0;
+            return;
+        }
+        final int dy = -mPredictedDy;
+        mPredictedDy = 0;
+        offsetViewTop(mCapturedView, dy);
+        mCallback.onViewPositionChanged(mCapturedView, mCapturedView.getLeft(),
+                getViewTop(mCapturedView), 0, dy);
+    }
+
+    private void addMovement(MotionEvent ev) {
+        if (mVelocitySource == VELOCITY_SOURCE_PLATFORM) {
+            if (mVelocityTracker == null) {
+                mVelocityTracker = VelocityTracker.obtain();
+            }
+            mVelocityTracker.addMovement(ev);
+            if (!mTouchPredictionEnabled) {
+                return;
+            }
+        }
+
+        // The estimator follows a single pointer: the active one once a view is captured,
+        // the first one down before that. Switching pointers starts a new fit.
+        final int pointerId = mActivePointerId != INVALID_POINTER
+                ? mActivePointerId : MotionEventCompat.getPointerId(ev, 0);
+        final int index = MotionEventCompat.findPointerIndex(ev, pointerId);
+        if (index < 0) {
+            return;
+        }
+        if (pointerId != mEstimatorPointerId) {
+            mVelocityEstimator.clear();
+            mEstimatorPointerId = pointerId;
+        }
+        final int historySize = ev.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            mVelocityEstimator.addSample(ev.getHistoricalEventTime(h),
+                    ev.getHistoricalX(index, h), ev.getHistoricalY(index, h));
+        }
+        mVelocityEstimator.addSample(ev.getEventTime(),
+                MotionEventCompat.getX(ev, index), MotionEventCompat.getY(ev, index));
+    }
+
+    private void computeCurrentVelocity() {
+        if (mVelocitySource == VELOCITY_SOURCE_PLATFORM) {
+            mVelocityTracker.computeCurrentVelocity(1000, mMaxVelocity);
+        } else {
+            mVelocityEstimator.computeCurrentVelocity(1000, mMaxVelocity);
+        }
+    }
+
+    private float getXVelocity() {
+        if (mVelocitySource == VELOCITY_SOURCE_PLATFORM) {
+            return VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId);
+        }
+        return mVelocityEstimator.getXVelocity();
+    }
+
+    private float getYVelocity() {
+        if (mVelocitySource == VELOCITY_SOURCE_PLATFORM) {
+            return VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId);
+        }
+        return mVelocityEstimator.getYVelocity();
     }
 
     private void releaseViewForPointerUp() {
-        mVelocityTracker.computeCurrentVelocity(1000, mMaxVelocity);
-        final float xvel = clampMag(
-                VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                mMinVelocity, mMaxVelocity);
-        final float yvel = clampMag(
-                VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId),
-                mMinVelocity, mMaxVelocity);
+        computeCurrentVelocity();
+        final float xvel = DragMath.clampMag(getXVelocity(), mMinVelocity, mMaxVelocity);
+        final float yvel = DragMath.clampMag(getYVelocity(), mMinVelocity, mMaxVelocity);
         dispatchViewReleased(xvel, yvel);
     }
 
+    /**
+     * Record a drag target to be applied on the next animation frame. The target is clamped
+     * the same way {@link #dragTo(int, int, int, int)} would clamp it, so later moves in the
+     * same frame continue from the position the view will actually take.
+     */
+    private void queueDragTo(int oldLeft, int oldTop, int left, int top, int dx, int dy) {
+        mPendingLeft = dx != 0
+                ? mCallback.clampViewPositionHorizontal(mCapturedView, left, dx) : oldLeft;
+        mPendingTop = dy != 0
+                ? mCallback.clampViewPositionVertical(mCapturedView, top, dy) : oldTop;
+        mHasPendingDrag = true;
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            ViewCompat.postOnAnimation(mParentView, mFlushPendingDragRunnable);
+        }
+    }
+
     private void dragTo(int left, int top, int dx, int dy) {
         int clampedX = left;
         int clampedY = top;
         final int oldLeft = mCapturedView.getLeft();
-        final int oldTop = mCapturedView.getTop();
+        final int oldTop = getViewTop(mCapturedView);
         if (dx != 0) {
             clampedX = mCallback.clampViewPositionHorizontal(mCapturedView, left, dx);
             mCapturedView.offsetLeftAndRight(clampedX - oldLeft);
         }
         if (dy != 0) {
             clampedY = mCallback.clampViewPositionVertical(mCapturedView, top, dy);
-            mCapturedView.offsetTopAndBottom(clampedY - oldTop);
+            offsetViewTop(mCapturedView, clampedY - oldTop);
         }
 
         if (dx != 0 || dy != 0) {
@@ -1410,10 +1879,11 @@ public class ViewDragHelper {
         if (view == null) {
             return false;
         }
+        final int top = getViewTop(view);
         return x >= view.getLeft() &&
                 x < view.getRight() &&
-                y >= view.getTop() &&
-                y < view.getBottom();
+                y >= top &&
+                y < top + view.getHeight();
     }
 
     /**
@@ -1428,8 +1898,9 @@ public class ViewDragHelper {
         final int childCount = mParentView.getChildCount();
         for (int i = childCount - 1; i >= 0; i--) {
             final View child = mParentView.getChildAt(mCallback.getOrderedChildIndex(i));
+            final int top = getViewTop(child);
             if (x >= child.getLeft() && x < child.getRight() &&
-                    y >= child.getTop() && y < child.getBottom()) {
+                    y >= top && y < top + child.getHeight()) {
                 return child;
             }
         }